@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The example_bank operations that are measured, given a Scenario provided by a subclass
+ * @author Tim Molderez
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class AbstractBankBenchmark {
+	private Scenario scenario;
+	private PrintStream out;
+
+	/**
+	 * Create the scenario to be measured (called once per fork)
+	 * @return
+	 * @throws Exception
+	 */
+	protected abstract Scenario createScenario() throws Exception;
+
+	@Setup
+	public void setUp() throws Exception {
+		// The example_bank aspects print a line for each transfer
+		out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {}
+			public void write(byte[] b, int off, int len) {}
+		}));
+
+		scenario = createScenario();
+		scenario.setUp();
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(out);
+	}
+
+	@Benchmark
+	public double deposit() {
+		return scenario.deposit();
+	}
+
+	@Benchmark
+	public double withdraw() {
+		return scenario.withdraw();
+	}
+
+	@Benchmark
+	public double transfer() {
+		return scenario.transfer();
+	}
+
+	@Benchmark
+	public double savingsTransfer() {
+		return scenario.savingsTransfer();
+	}
+}
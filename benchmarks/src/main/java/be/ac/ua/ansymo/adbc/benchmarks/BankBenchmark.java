@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+import be.ac.ua.ansymo.adbc.AdbcConfig;
+import be.ac.ua.ansymo.adbc.EnforcementLevel;
+import be.ac.ua.ansymo.adbc.utilities.EnforcementPolicy;
+
+/**
+ * Measures the overhead of contract enforcement on the example_bank operations
+ * (The same operations without adbc's aspects are measured by BaselineBenchmark.)
+ * 
+ * Each combination of parameters runs in its own JVM:
+ * - enforcement:
+ * 		"off": AdbcConfig.enforceContracts is false
+ * 		"pre", "post", "full": the default enforcement level (see EnforcementLevel)
+ * - engine: the scripting engine used to evaluate contracts (see AdbcConfig.engine)
+ * @author Tim Molderez
+ */
+public class BankBenchmark extends AbstractBankBenchmark {
+	@Param({"off", "pre", "post", "full"})
+	public String enforcement;
+
+	@Param({"adbc", "JavaScript"})
+	public String engine;
+
+	@Override
+	protected Scenario createScenario() throws Exception {
+		AdbcConfig.engine = engine;
+		if (enforcement.equals("off")) {
+			AdbcConfig.enforceContracts = false;
+		} else {
+			EnforcementPolicy.setLevel("", EnforcementLevel.valueOf(enforcement.toUpperCase()));
+			// The scenario class itself has no contracts; don't count its own enforcement overhead
+			EnforcementPolicy.setLevel(BaselineLoader.SCENARIO, EnforcementLevel.OFF);
+		}
+		return (Scenario)Class.forName(BaselineLoader.SCENARIO).newInstance();
+	}
+}
@@ -0,0 +1,22 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.benchmarks;
+
+/**
+ * Measures the example_bank operations without adbc's aspects, as a baseline for BankBenchmark
+ * (It has no parameters, as the enforcement level and engine have no effect on unwoven code.)
+ * @author Tim Molderez
+ */
+public class BaselineBenchmark extends AbstractBankBenchmark {
+	@Override
+	protected Scenario createScenario() throws Exception {
+		return BaselineLoader.newScenario();
+	}
+}
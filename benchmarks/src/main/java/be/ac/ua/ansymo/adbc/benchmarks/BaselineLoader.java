@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads the unwoven version of example_bank, which is packaged under "baseline/"
+ * 
+ * Any classes outside of example_bank (e.g. the Scenario interface) are loaded by the parent class loader,
+ * such that the unwoven scenario can be used in the same way as the woven one.
+ * @author Tim Molderez
+ */
+public class BaselineLoader extends ClassLoader {
+	/** Name of the class implementing the Scenario */
+	public static String SCENARIO = "be.ac.ua.ansymo.example_bank.BankScenario";
+
+	private static String PACKAGE = "be.ac.ua.ansymo.example_bank.";
+	private static String DIRECTORY = "baseline/";
+
+	/**
+	 * Constructor
+	 * @param parent	class loader of the benchmark harness
+	 */
+	public BaselineLoader(ClassLoader parent) {
+		super(parent);
+	}
+
+	/**
+	 * Create an instance of the unwoven scenario, in a new class loader
+	 * @return
+	 * @throws Exception
+	 */
+	public static Scenario newScenario() throws Exception {
+		BaselineLoader loader = new BaselineLoader(BaselineLoader.class.getClassLoader());
+		return (Scenario)loader.loadClass(SCENARIO).newInstance();
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		if (!name.startsWith(PACKAGE)) {
+			return super.loadClass(name, resolve);
+		}
+
+		synchronized (getClassLoadingLock(name)) {
+			Class<?> c = findLoadedClass(name);
+			if (c == null) {
+				c = findClass(name);
+			}
+			if (resolve) {
+				resolveClass(c);
+			}
+			return c;
+		}
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		InputStream in = getParent().getResourceAsStream(DIRECTORY + name.replace('.', '/') + ".class");
+		if (in == null) {
+			throw new ClassNotFoundException(name);
+		}
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, n);
+			}
+			in.close();
+			return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+		} catch (IOException e) {
+			throw new ClassNotFoundException(name, e);
+		}
+	}
+}
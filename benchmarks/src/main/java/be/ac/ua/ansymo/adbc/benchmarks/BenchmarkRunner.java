@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks (BaselineBenchmark and BankBenchmark) with the GC profiler enabled, such that both the time
+ * and the allocation rate (gc.alloc.rate.norm, in bytes/op) are reported for each configuration
+ * Any JMH command-line options can be passed as well, e.g. "-p enforcement=off,full -p engine=adbc".
+ * @author Tim Molderez
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(BaselineBenchmark.class.getName())
+				.include(BankBenchmark.class.getName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
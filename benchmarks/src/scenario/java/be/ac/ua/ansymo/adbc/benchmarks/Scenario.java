@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.benchmarks;
+
+/**
+ * The operations that are measured by the benchmarks
+ * (Implemented by example_bank's BankScenario, which is available in both a woven and an unwoven version.)
+ * @author Tim Molderez
+ */
+public interface Scenario {
+	/**
+	 * Create the users and accounts used by the other operations
+	 */
+	public void setUp();
+
+	/**
+	 * Deposit money in an account
+	 * @return the account's new balance
+	 */
+	public double deposit();
+
+	/**
+	 * Withdraw money from an account
+	 * @return the account's new balance
+	 */
+	public double withdraw();
+
+	/**
+	 * Transfer money back and forth between two accounts (advised by the authentication/authorization advice)
+	 * @return the first account's new balance
+	 */
+	public double transfer();
+
+	/**
+	 * Transfer money back and forth between two accounts, one of which is a SavingsAccount
+	 * @return the savings account's new balance
+	 */
+	public double savingsTransfer();
+}
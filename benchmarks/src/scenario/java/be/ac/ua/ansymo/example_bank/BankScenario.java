@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.example_bank;
+
+import be.ac.ua.ansymo.adbc.benchmarks.Scenario;
+import be.ac.ua.ansymo.example_bank.aspects.Authentication;
+import be.ac.ua.ansymo.example_bank.aspects.Authorization;
+
+/**
+ * The example_bank operations that are measured by the benchmarks
+ * (Transfers are done back and forth, such that all balances remain positive.)
+ * @author Tim Molderez
+ */
+public class BankScenario implements Scenario {
+	User finn;
+	Account account;
+	Account other;
+	Account savings;
+
+	public void setUp() {
+		finn = new User("Finn");
+		account = new Account(1000.0, finn);
+		other = new Account(1000.0, finn);
+		savings = new SavingsAccount(1000.0, finn);
+
+		Authentication.login(finn, "Peebles");
+		Authorization.addRights(finn, "transfer");
+	}
+
+	public double deposit() {
+		account.deposit(1.0);
+		return account.getAmount();
+	}
+
+	public double withdraw() {
+		account.withdraw(1.0);
+		return account.getAmount();
+	}
+
+	public double transfer() {
+		account.transfer(1.0, other);
+		other.transfer(1.0, account);
+		return account.getAmount();
+	}
+
+	public double savingsTransfer() {
+		savings.transfer(1.0, other);
+		other.transfer(1.0, savings);
+		return savings.getAmount();
+	}
+}
@@ -9,6 +9,8 @@
 
 package be.ac.ua.ansymo.adbc;
 
+import be.ac.ua.ansymo.adbc.utilities.ContractAuditor;
+
 /**
  * Adbc configuration - Simply change the fields exposed by this class to alter Adbc's settings at any time
  * @author Tim Molderez
@@ -17,6 +19,7 @@ public class AdbcConfig {
 	/**
 	 * If true, contract enforcement is enabled. (Default value: true)
 	 * If false, adbc is disabled.
+	 * (Have a look at EnforcementPolicy to set which contracts are checked per package, class or method.)
 	 */
 	public static boolean enforceContracts = true;
 	
@@ -33,16 +36,114 @@ public class AdbcConfig {
 	 */
 	public static boolean checkPostconditions = true;
 	
+	/**
+	 * Fraction of the invocations of each method/advice whose contracts are checked. (Default value: 1.0)
+	 * For example, if set to 0.1, about one in ten invocations is checked. The other invocations skip
+	 * contract enforcement entirely, including the evaluation of $old() and the substitution principle.
+	 */
+	public static double samplingRate = 1.0;
+	
+	/**
+	 * If true, the contracts of a method/advice are checked less often the longer they keep passing. (Default value: false)
+	 * Each time they have passed adaptiveSamplingThreshold times in a row, the interval between checks doubles,
+	 * up to adaptiveSamplingMaxInterval. As soon as a contract is broken, every invocation is checked again.
+	 * (This is combined with samplingRate.)
+	 */
+	public static boolean adaptiveSampling = false;
+	
+	/**
+	 * Number of consecutive passes before the interval between checks doubles (if adaptiveSampling is enabled)
+	 */
+	public static int adaptiveSamplingThreshold = 100;
+	
+	/**
+	 * If adaptiveSampling is enabled, contracts are checked at least once every adaptiveSamplingMaxInterval invocations
+	 */
+	public static int adaptiveSamplingMaxInterval = 1024;
+	
+	/**
+	 * If true, the postconditions and invariants of methods/constructors are checked on a background thread. (Default value: false)
+	 * The caller doesn't have to wait for these checks, but contract violations can no longer be thrown to the caller;
+	 * they are passed to the listener of ContractAuditor instead.
+	 * Only $result and the results of $old() are captured when the method returns, so a check is only deferred
+	 * if its contracts read nothing else that can still change (e.g. if they only use $result, $old() and primitive parameters).
+	 * Otherwise, including whenever an invariant refers to $this, the check is done on the calling thread as usual.
+	 */
+	public static boolean auditMode = false;
+	
+	/**
+	 * Number of background threads used to run checks in audit mode (Default value: 1)
+	 */
+	public static int auditThreads = 1;
+	
+	/**
+	 * Maximum number of checks waiting to be run in audit mode (Default value: 1024)
+	 */
+	public static int auditQueueSize = 1024;
+	
+	/**
+	 * Determines what happens to new checks in audit mode if there are already auditQueueSize checks waiting. (Default value: DROP)
+	 */
+	public static ContractAuditor.Backpressure auditBackpressure = ContractAuditor.Backpressure.DROP;
+	
+	/**
+	 * If true, broken contracts don't throw a ContractEnforcementException; they are only recorded in the ViolationLog. (Default value: false)
+	 * Execution simply continues after a violation, so this is meant for runs that are expected to break many contracts
+	 * (e.g. fuzzing), or to observe contracts in production without affecting its behaviour.
+	 */
+	public static boolean reportMode = false;
+	
+	/**
+	 * Number of violations the ViolationLog can hold before the oldest ones are overwritten (Default value: 4096)
+	 * (Rounded up to a power of two; only read when the ViolationLog is first used.)
+	 */
+	public static int reportBufferSize = 4096;
+	
+	/**
+	 * If true, the contracts of a method are only enforced when it is called across an object or module boundary. (Default value: false)
+	 * That is, calls on the caller's own this object, or calls made from within one of the trustedPackages,
+	 * skip contract enforcement entirely (including invariants), as in Eiffel. Constructors and advice are still enforced.
+	 */
+	public static boolean boundaryEnforcement = false;
+	
+	/**
+	 * If boundaryEnforcement is enabled, calls made from within these packages (or their subpackages) skip contract enforcement.
+	 * (Default value: none)
+	 */
+	public static String[] trustedPackages = new String[0];
+	
+	/**
+	 * If true, each ContractEnforcementException captures the stack trace at the point where the contract is broken. (Default value: true)
+	 * Disable this if many violations are expected (e.g. property-based testing); the blamed caller is still included in the exception.
+	 */
+	public static boolean captureStackTraces = true;
+	
+	/**
+	 * If true, the number of evaluations, failures and the evaluation time of each contract clause are recorded,
+	 * as well as the time spent on contract enforcement per method/advice. (Default value: false)
+	 * The results are available via JMX or ContractMetrics. While enabled, the clauses of a contract are evaluated
+	 * one by one, rather than in a single call to the scripting engine.
+	 */
+	public static boolean collectMetrics = false;
+	
 	/**
 	 * This scripting engine is used to execute contracts.
-	 * "JavaScript" refers to the default Mozilla Rhino engine that comes with the JRE.
+	 * "adbc" refers to adbc's own engine, which compiles contracts such that fields and methods are accessed directly.
+	 * It supports the JavaScript subset that is commonly used in contracts: comparisons, boolean logic, arithmetic,
+	 * the conditional operator and field/method access. Any contract outside of this subset is executed by the fallback engine.
 	 * 
 	 * If you want to use another engine: It must implement the JSR-223 specification (javax.script) 
 	 * and should use the service provider mechanism to be discoverable by name.
 	 * Have a look at http://java.net/projects/scripting/sources/svn/show/trunk to find JSR-223 support
 	 * for a variety of languages.
 	 */
-	public static String engine = "JavaScript";
+	public static String engine = "adbc";
+	
+	/**
+	 * If the "adbc" engine is used, any contract it does not support is executed by this scripting engine instead.
+	 * "JavaScript" refers to the JavaScript engine that comes with the JRE (if any).
+	 */
+	public static String fallbackEngine = "JavaScript";
 	
 	/**
 	 * The prefix to be used for the special constructs that can occur in contracts (e.g. $this, $old, $result, ..)
@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc;
+
+/**
+ * Determines which contracts are checked for a certain package, class, method or advice
+ * (The global settings in AdbcConfig still apply on top of this; e.g. if AdbcConfig.checkPostconditions
+ * is false, postconditions are never checked, regardless of the enforcement level.)
+ * @author Tim Molderez
+ */
+public enum EnforcementLevel {
+	/** No contracts are checked */
+	OFF,
+	/** Only preconditions and invariants are checked, before the method/advice executes */
+	PRE,
+	/** Preconditions, postconditions and invariants are checked, but not the substitution principle */
+	POST,
+	/** All contracts are checked, as well as the substitution principle */
+	FULL;
+
+	/**
+	 * Should postconditions (and invariants in the post-state) be checked at this level?
+	 * @return
+	 */
+	public boolean checkPostconditions() {
+		return compareTo(POST) >= 0 && AdbcConfig.checkPostconditions;
+	}
+
+	/**
+	 * Should the substitution principle be checked at this level?
+	 * @return
+	 */
+	public boolean checkSubstitutionPrinciple() {
+		return this == FULL && AdbcConfig.checkSubstitutionPrinciple;
+	}
+}
@@ -0,0 +1,26 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a query method without side effects, whose result only depends on its receiver's state and its arguments
+ * (When checking the contracts of a join point, repeated calls to a pure method with the same receiver and arguments
+ * are only evaluated once in the pre-state, and once in the post-state. This only applies to adbc's own contract engine.)
+ * @author Tim Molderez
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface pure {
+}
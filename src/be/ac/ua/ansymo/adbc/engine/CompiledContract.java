@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.engine;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * A contract compiled by the ContractEngine
+ * @author Tim Molderez
+ */
+public class CompiledContract extends CompiledScript {
+	private ContractEngine engine;
+	private Node root;
+	
+	/**
+	 * Constructor
+	 * @param engine	the engine that compiled this contract
+	 * @param root		root node of the contract
+	 */
+	public CompiledContract(ContractEngine engine, Node root) {
+		this.engine = engine;
+		this.root = root;
+	}
+	
+	@Override
+	public Object eval(ScriptContext context) throws ScriptException {
+		return root.eval(context);
+	}
+	
+	/**
+	 * Evaluate this contract as a boolean, without boxing the result
+	 * @param context	context containing the variable bindings
+	 * @return
+	 * @throws ScriptException
+	 */
+	public boolean evalBoolean(ScriptContext context) throws ScriptException {
+		return root.evalBoolean(context);
+	}
+	
+	/**
+	 * Evaluate this contract as a number, without boxing the result
+	 * @param context	context containing the variable bindings
+	 * @return
+	 * @throws ScriptException if the contract does not produce a number
+	 */
+	public double evalNumber(ScriptContext context) throws ScriptException {
+		try {
+			return root.evalNumber(context);
+		} catch (Node.NotNumeric e) {
+			throw new ScriptException("Not a number");
+		}
+	}
+	
+	@Override
+	public ScriptEngine getEngine() {
+		return engine;
+	}
+}
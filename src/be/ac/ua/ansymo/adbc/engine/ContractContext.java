@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.engine;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+/**
+ * Script context that also memoizes the results of @pure methods called by contracts
+ * 
+ * Within the same context, calling a @pure method again on the same receiver, with equal arguments,
+ * returns the earlier result instead of calling the method. These results should be cleared
+ * whenever the program state may have changed, i.e. before evaluating contracts in the post-state.
+ * (A context should only be used by one thread at a time.)
+ * @author Tim Molderez
+ */
+public class ContractContext extends SimpleScriptContext {
+	private HashMap<Query, Object> results = new HashMap<Query, Object>();
+
+	/**
+	 * Remove all memoized results
+	 */
+	public void clearQueries() {
+		if (!results.isEmpty()) {
+			results.clear();
+		}
+	}
+
+	/*
+	 * Call a @pure method, or retrieve its memoized result
+	 * (If the call throws an exception, nothing is memoized.)
+	 */
+	Object query(Node.Accessor a, Object receiver, Object[] args) throws ScriptException {
+		Query q = new Query(receiver, a.query, args);
+		Object result = results.get(q);
+		if (result == null && !results.containsKey(q)) {
+			result = a.invoke(receiver, args);
+			results.put(q, result);
+		}
+		return result;
+	}
+
+	/*
+	 * Key of a memoized result: receiver (by identity), method and arguments (by equality)
+	 */
+	private static class Query {
+		private Object receiver;
+		private Method method;
+		private Object[] args;
+		private int hash;
+
+		Query(Object receiver, Method method, Object[] args) {
+			this.receiver = receiver;
+			this.method = method;
+			this.args = args;
+			hash = (System.identityHashCode(receiver) * 31 + method.hashCode()) * 31 + Arrays.hashCode(args);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Query)) {
+				return false;
+			}
+			Query q = (Query)o;
+			return receiver == q.receiver && method.equals(q.method) && Arrays.equals(args, q.args);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.engine;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+import be.ac.ua.ansymo.adbc.AdbcConfig;
+
+/**
+ * Scripting engine that compiles contracts into a tree of nodes, which access fields/methods
+ * directly via MethodHandles. It understands the subset of JavaScript that is commonly used in contracts
+ * (see ContractParser). Any contract outside of this subset is handed to the fallback engine (AdbcConfig.fallbackEngine).
+ * @author Tim Molderez
+ */
+public class ContractEngine extends AbstractScriptEngine implements Compilable {
+	private ScriptEngineFactory factory;
+	private ScriptEngine fallback;
+	private String fallbackName;
+
+	/**
+	 * Constructor
+	 * @param factory	the factory that created this engine
+	 */
+	public ContractEngine(ScriptEngineFactory factory) {
+		this.factory = factory;
+	}
+
+	public CompiledScript compile(String script) throws ScriptException {
+		Node root;
+		try {
+			root = new ContractParser(script).parse();
+		} catch (ScriptException e) {
+			// Not part of the subset we support; try the fallback engine instead
+			return new FallbackContract(getFallback(e).compile(script));
+		}
+		return new CompiledContract(this, root);
+	}
+
+	public CompiledScript compile(Reader script) throws ScriptException {
+		return compile(read(script));
+	}
+
+	public Object eval(String script, ScriptContext context) throws ScriptException {
+		return compile(script).eval(context);
+	}
+
+	public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+		return eval(read(reader), context);
+	}
+
+	public Bindings createBindings() {
+		return new SimpleBindings();
+	}
+
+	public ScriptEngineFactory getFactory() {
+		return factory;
+	}
+	
+	/**
+	 * Concatenates a number of statements into one contract, using the && operation
+	 * @param statements
+	 * @return
+	 */
+	static String mergeStatements(String... statements) {
+		StringBuilder result = new StringBuilder();
+		String separator = "";
+		for (String statement : statements) {
+			result.append(separator).append("(").append(statement).append(")");
+			separator = " && ";
+		}
+		return result.toString();
+	}
+	
+	/*
+	 * Retrieve the fallback engine
+	 * @param cause		the reason why the fallback engine is needed
+	 * @return
+	 * @throws ScriptException if the fallback engine is not available
+	 */
+	private synchronized Compilable getFallback(ScriptException cause) throws ScriptException {
+		if (fallback == null || !AdbcConfig.fallbackEngine.equals(fallbackName)) {
+			fallbackName = AdbcConfig.fallbackEngine;
+			fallback = new ScriptEngineManager().getEngineByName(fallbackName);
+		}
+		if (!(fallback instanceof Compilable)) {
+			throw new ScriptException(cause.getMessage() + " (and no compilable fallback engine named \"" + fallbackName + "\" is available)");
+		}
+		return (Compilable)fallback;
+	}
+	
+	private static String read(Reader reader) throws ScriptException {
+		StringBuilder result = new StringBuilder();
+		char[] buffer = new char[1024];
+		try {
+			int n;
+			while ((n = reader.read(buffer)) != -1) {
+				result.append(buffer, 0, n);
+			}
+		} catch (IOException e) {
+			throw new ScriptException(e);
+		}
+		return result.toString();
+	}
+	
+	/*
+	 * A contract compiled by the fallback engine
+	 * (It presents itself as part of the ContractEngine, such that it can be cached as such.)
+	 */
+	private class FallbackContract extends CompiledScript {
+		private CompiledScript compiled;
+		
+		public FallbackContract(CompiledScript compiled) {
+			this.compiled = compiled;
+		}
+		
+		public Object eval(ScriptContext context) throws ScriptException {
+			return compiled.eval(context);
+		}
+		
+		public ScriptEngine getEngine() {
+			return ContractEngine.this;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.engine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/**
+ * Factory of the ContractEngine
+ * @author Tim Molderez
+ */
+public class ContractEngineFactory implements ScriptEngineFactory {
+	/**
+	 * Name of the ContractEngine; use this as the value of AdbcConfig.engine to select it
+	 */
+	public static final String NAME = "adbc";
+
+	public String getEngineName() {
+		return NAME;
+	}
+
+	public String getEngineVersion() {
+		return "1.0";
+	}
+
+	public List<String> getExtensions() {
+		return Collections.emptyList();
+	}
+
+	public List<String> getMimeTypes() {
+		return Collections.emptyList();
+	}
+
+	public List<String> getNames() {
+		return Arrays.asList(NAME);
+	}
+
+	public String getLanguageName() {
+		return "adbc contracts (JavaScript subset)";
+	}
+
+	public String getLanguageVersion() {
+		return "1.0";
+	}
+
+	public Object getParameter(String key) {
+		if (key.equals(ScriptEngine.NAME)) {
+			return NAME;
+		} else if (key.equals(ScriptEngine.ENGINE)) {
+			return getEngineName();
+		} else if (key.equals(ScriptEngine.ENGINE_VERSION)) {
+			return getEngineVersion();
+		} else if (key.equals(ScriptEngine.LANGUAGE)) {
+			return getLanguageName();
+		} else if (key.equals(ScriptEngine.LANGUAGE_VERSION)) {
+			return getLanguageVersion();
+		} else if (key.equals("THREADING")) {
+			// Compiled contracts can be evaluated concurrently, as long as each thread uses its own context
+			return "MULTITHREADED";
+		}
+		return null;
+	}
+
+	public String getMethodCallSyntax(String obj, String m, String... args) {
+		StringBuilder result = new StringBuilder(obj + "." + m + "(");
+		String separator = "";
+		for (String arg : args) {
+			result.append(separator).append(arg);
+			separator = ", ";
+		}
+		return result.append(")").toString();
+	}
+
+	/**
+	 * Contracts can't produce output; the closest thing is a string literal that evaluates to the given text.
+	 */
+	public String getOutputStatement(String toDisplay) {
+		return "\"" + toDisplay.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+	}
+
+	public String getProgram(String... statements) {
+		return ContractEngine.mergeStatements(statements);
+	}
+
+	public ScriptEngine getScriptEngine() {
+		return new ContractEngine(this);
+	}
+}
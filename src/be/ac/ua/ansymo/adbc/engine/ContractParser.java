@@ -0,0 +1,325 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.engine;
+
+import java.util.ArrayList;
+
+import javax.script.ScriptException;
+
+/**
+ * Recursive descent parser for the subset of JavaScript that is commonly used in contracts:
+ * literals, variables ($this, $result, parameters, ..), field/method access, arithmetic, comparisons,
+ * boolean logic and the conditional operator.
+ * 
+ * Anything outside of this subset results in a ScriptException, such that the contract can be handed
+ * to a fallback engine instead.
+ * @author Tim Molderez
+ */
+public class ContractParser {
+	private String source;
+	private int pos;
+	
+	// Current token
+	private int kind;
+	private String text;
+	private int start;
+	
+	private static final int END = 0;
+	private static final int IDENT = 1;
+	private static final int NUMBER = 2;
+	private static final int STRING = 3;
+	private static final int OPERATOR = 4;
+	
+	/* Operators, longest first */
+	private static final String[] operators = {"===", "!==", "==", "!=", "<=", ">=", "&&", "||",
+		"<", ">", "+", "-", "*", "/", "%", "!", "?", ":", "(", ")", ",", "."};
+	
+	/* Reserved words that are not part of the supported subset */
+	private static final String[] unsupportedWords = {"new", "function", "typeof", "instanceof", "in", "delete", "void",
+		"var", "let", "const", "if", "else", "for", "while", "do", "return", "this"};
+	
+	/**
+	 * Constructor
+	 * @param source	the contract to be parsed
+	 */
+	public ContractParser(String source) {
+		this.source = source;
+	}
+	
+	/**
+	 * Parse the contract
+	 * @return the root node of the parsed contract
+	 * @throws ScriptException if the contract is malformed or falls outside the supported subset
+	 */
+	public Node parse() throws ScriptException {
+		next();
+		Node result = parseConditional();
+		if (kind != END) {
+			throw error("Unexpected '" + text + "'");
+		}
+		return result;
+	}
+	
+	private Node parseConditional() throws ScriptException {
+		Node test = parseOr();
+		if (isOperator("?")) {
+			next();
+			Node then = parseConditional();
+			expect(":");
+			Node otherwise = parseConditional();
+			return new Node.Conditional(test, then, otherwise);
+		}
+		return test;
+	}
+	
+	private Node parseOr() throws ScriptException {
+		Node left = parseAnd();
+		while (isOperator("||")) {
+			next();
+			left = new Node.Logical(false, left, parseAnd());
+		}
+		return left;
+	}
+	
+	private Node parseAnd() throws ScriptException {
+		Node left = parseEquality();
+		while (isOperator("&&")) {
+			next();
+			left = new Node.Logical(true, left, parseEquality());
+		}
+		return left;
+	}
+	
+	private Node parseEquality() throws ScriptException {
+		Node left = parseRelational();
+		while (isOperator("==") || isOperator("!=") || isOperator("===") || isOperator("!==")) {
+			String op = text;
+			next();
+			left = new Node.Compare(op, left, parseRelational());
+		}
+		return left;
+	}
+	
+	private Node parseRelational() throws ScriptException {
+		Node left = parseAdditive();
+		while (isOperator("<") || isOperator("<=") || isOperator(">") || isOperator(">=")) {
+			String op = text;
+			next();
+			left = new Node.Compare(op, left, parseAdditive());
+		}
+		return left;
+	}
+	
+	private Node parseAdditive() throws ScriptException {
+		Node left = parseMultiplicative();
+		while (isOperator("+") || isOperator("-")) {
+			char op = text.charAt(0);
+			next();
+			left = new Node.Arithmetic(op, left, parseMultiplicative());
+		}
+		return left;
+	}
+	
+	private Node parseMultiplicative() throws ScriptException {
+		Node left = parseUnary();
+		while (isOperator("*") || isOperator("/") || isOperator("%")) {
+			char op = text.charAt(0);
+			next();
+			left = new Node.Arithmetic(op, left, parseUnary());
+		}
+		return left;
+	}
+	
+	private Node parseUnary() throws ScriptException {
+		if (isOperator("!")) {
+			next();
+			return new Node.Not(parseUnary());
+		} else if (isOperator("-")) {
+			next();
+			Node operand = parseUnary();
+			if (operand instanceof Node.Literal && ((Node.Literal)operand).value instanceof Double) {
+				return new Node.Literal(-(Double)((Node.Literal)operand).value);
+			}
+			return new Node.Negate(operand);
+		} else if (isOperator("+")) {
+			next();
+			return new Node.Arithmetic('+', new Node.Literal(0.0), parseUnary());
+		}
+		return parsePostfix();
+	}
+	
+	private Node parsePostfix() throws ScriptException {
+		Node target = parsePrimary();
+		while (isOperator(".")) {
+			next();
+			if (kind != IDENT) {
+				throw error("Expected a member name");
+			}
+			String name = text;
+			next();
+			if (isOperator("(")) {
+				target = new Node.Call(target, name, parseArguments());
+			} else {
+				target = new Node.Property(target, name);
+			}
+		}
+		return target;
+	}
+	
+	private Node[] parseArguments() throws ScriptException {
+		expect("(");
+		ArrayList<Node> args = new ArrayList<Node>();
+		if (!isOperator(")")) {
+			args.add(parseConditional());
+			while (isOperator(",")) {
+				next();
+				args.add(parseConditional());
+			}
+		}
+		expect(")");
+		return args.toArray(new Node[args.size()]);
+	}
+	
+	private Node parsePrimary() throws ScriptException {
+		if (kind == NUMBER) {
+			Node result = new Node.Literal(Double.valueOf(text));
+			next();
+			return result;
+		} else if (kind == STRING) {
+			Node result = new Node.Literal(text);
+			next();
+			return result;
+		} else if (kind == IDENT) {
+			String name = text;
+			next();
+			if (name.equals("true")) {
+				return new Node.Literal(Boolean.TRUE);
+			} else if (name.equals("false")) {
+				return new Node.Literal(Boolean.FALSE);
+			} else if (name.equals("null") || name.equals("undefined")) {
+				return new Node.Literal(null);
+			}
+			for (String word : unsupportedWords) {
+				if (name.equals(word)) {
+					throw error("Unsupported keyword '" + name + "'");
+				}
+			}
+			if (isOperator("(")) {
+				// Only member calls are supported; $old() calls should have been evaluated before the contract is.
+				throw error("Unsupported function call '" + name + "'");
+			}
+			return new Node.Variable(name);
+		} else if (isOperator("(")) {
+			next();
+			Node result = parseConditional();
+			expect(")");
+			return result;
+		}
+		throw error(kind == END ? "Unexpected end of contract" : "Unexpected '" + text + "'");
+	}
+	
+	/* ****************************************************************
+	 * Tokenizer
+	 **************************************************************** */
+	
+	private boolean isOperator(String op) {
+		return kind == OPERATOR && text.equals(op);
+	}
+	
+	private void expect(String op) throws ScriptException {
+		if (!isOperator(op)) {
+			throw error("Expected '" + op + "'");
+		}
+		next();
+	}
+	
+	private ScriptException error(String message) {
+		return new ScriptException(message + " at position " + start + " in: " + source);
+	}
+	
+	private void next() throws ScriptException {
+		while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+			pos++;
+		}
+		start = pos;
+		if (pos == source.length()) {
+			kind = END;
+			text = "";
+			return;
+		}
+		
+		char c = source.charAt(pos);
+		if (Character.isJavaIdentifierStart(c)) {
+			while (pos < source.length() && Character.isJavaIdentifierPart(source.charAt(pos))) {
+				pos++;
+			}
+			kind = IDENT;
+			text = source.substring(start, pos);
+		} else if (Character.isDigit(c) || (c == '.' && pos + 1 < source.length() && Character.isDigit(source.charAt(pos + 1)))) {
+			while (pos < source.length() && (Character.isDigit(source.charAt(pos)) || source.charAt(pos) == '.')) {
+				pos++;
+			}
+			if (pos < source.length() && (source.charAt(pos) == 'e' || source.charAt(pos) == 'E')) {
+				pos++;
+				if (pos < source.length() && (source.charAt(pos) == '+' || source.charAt(pos) == '-')) {
+					pos++;
+				}
+				while (pos < source.length() && Character.isDigit(source.charAt(pos))) {
+					pos++;
+				}
+			}
+			kind = NUMBER;
+			text = source.substring(start, pos);
+			try {
+				Double.valueOf(text);
+			} catch (NumberFormatException e) {
+				throw error("Malformed number '" + text + "'");
+			}
+		} else if (c == '"' || c == '\'') {
+			kind = STRING;
+			text = readString(c);
+		} else {
+			for (String op : operators) {
+				if (source.startsWith(op, pos)) {
+					pos += op.length();
+					kind = OPERATOR;
+					text = op;
+					return;
+				}
+			}
+			throw error("Unsupported character '" + c + "'");
+		}
+	}
+	
+	private String readString(char quote) throws ScriptException {
+		StringBuilder result = new StringBuilder();
+		pos++;
+		while (pos < source.length() && source.charAt(pos) != quote) {
+			char c = source.charAt(pos);
+			if (c == '\\' && pos + 1 < source.length()) {
+				pos++;
+				c = source.charAt(pos);
+				switch (c) {
+				case 'n': c = '\n'; break;
+				case 't': c = '\t'; break;
+				case 'r': c = '\r'; break;
+				case 'u': throw error("Unsupported escape sequence");
+				}
+			}
+			result.append(c);
+			pos++;
+		}
+		if (pos == source.length()) {
+			throw error("Unterminated string");
+		}
+		pos++;
+		return result.toString();
+	}
+}
@@ -0,0 +1,912 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.engine;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+
+import be.ac.ua.ansymo.adbc.annotations.pure;
+
+/**
+ * A node in the tree of a compiled contract
+ * 
+ * Nodes have typed evaluation methods: evalBoolean() and evalNumber() produce primitive results
+ * without boxing, wherever the types allow it. Arithmetic and comparisons speculate that their operands
+ * are numbers, and permanently switch to a generic (JavaScript-like) evaluation once that is not the case.
+ * (Either way, each operand is evaluated only once, as in JavaScript.)
+ * Member accesses cache a MethodHandle for the last receiver type they've seen.
+ * @author Tim Molderez
+ */
+public abstract class Node {
+	
+	/**
+	 * Evaluate this node
+	 * @param ctx	context containing the variable bindings
+	 * @return
+	 * @throws ScriptException
+	 */
+	public abstract Object eval(ScriptContext ctx) throws ScriptException;
+	
+	/**
+	 * Evaluate this node as a boolean (using JavaScript's notion of truthiness)
+	 * @param ctx	context containing the variable bindings
+	 * @return
+	 * @throws ScriptException
+	 */
+	public boolean evalBoolean(ScriptContext ctx) throws ScriptException {
+		return truthy(eval(ctx));
+	}
+	
+	/**
+	 * Evaluate this node as a number
+	 * @param ctx	context containing the variable bindings
+	 * @return
+	 * @throws ScriptException
+	 * @throws NotNumeric if the result is not a number; note that the node has been evaluated at that point,
+	 * 			so its result is included in the exception
+	 */
+	public double evalNumber(ScriptContext ctx) throws ScriptException {
+		return number(eval(ctx));
+	}
+	
+	/*
+	 * Signals that a node speculating on numbers encountered something else
+	 * (It has no stack trace, as it's only used for control flow.)
+	 */
+	static class NotNumeric extends RuntimeException {
+		Object value;	// Result of the node that was evaluated
+		
+		NotNumeric(Object value) {
+			super(null, null, false, false);
+			this.value = value;
+		}
+	}
+	
+	/*
+	 * Convert the result of a node to a double, or throw NotNumeric if it isn't a number
+	 */
+	static double number(Object value) {
+		if (value instanceof Number) {
+			return ((Number)value).doubleValue();
+		}
+		throw new NotNumeric(value);
+	}
+	
+	/* ****************************************************************
+	 * Conversions (following JavaScript semantics)
+	 **************************************************************** */
+	
+	static boolean truthy(Object value) {
+		if (value == null) {
+			return false;
+		} else if (value instanceof Boolean) {
+			return (Boolean)value;
+		} else if (value instanceof Number) {
+			double d = ((Number)value).doubleValue();
+			return d != 0 && !Double.isNaN(d);
+		} else if (value instanceof CharSequence) {
+			return ((CharSequence)value).length() != 0;
+		}
+		return true;
+	}
+	
+	static double toNumber(Object value) {
+		if (value == null) {
+			return 0;
+		} else if (value instanceof Number) {
+			return ((Number)value).doubleValue();
+		} else if (value instanceof Boolean) {
+			return (Boolean)value ? 1 : 0;
+		} else if (value instanceof Character) {
+			value = value.toString();
+		}
+		if (value instanceof CharSequence) {
+			String s = value.toString().trim();
+			if (s.length() == 0) {
+				return 0;
+			}
+			try {
+				return Double.parseDouble(s);
+			} catch (NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+		return Double.NaN;
+	}
+	
+	static String toText(Object value) {
+		if (value instanceof Double || value instanceof Float) {
+			double d = ((Number)value).doubleValue();
+			if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 1e21) {
+				return Long.toString((long)d);
+			}
+		}
+		return String.valueOf(value);
+	}
+	
+	static boolean isText(Object value) {
+		return value instanceof CharSequence || value instanceof Character;
+	}
+	
+	static boolean looseEquals(Object left, Object right) {
+		if (left == null || right == null) {
+			return left == right;
+		} else if (left instanceof Number && right instanceof Number) {
+			return ((Number)left).doubleValue() == ((Number)right).doubleValue();
+		} else if (isText(left) && isText(right)) {
+			return left.toString().equals(right.toString());
+		} else if (left instanceof Boolean || right instanceof Boolean
+				|| (left instanceof Number && isText(right)) || (isText(left) && right instanceof Number)) {
+			return toNumber(left) == toNumber(right);
+		}
+		return left == right;
+	}
+	
+	static boolean strictEquals(Object left, Object right) {
+		if (left == null || right == null) {
+			return left == right;
+		} else if (left instanceof Number && right instanceof Number) {
+			return ((Number)left).doubleValue() == ((Number)right).doubleValue();
+		} else if (isText(left) && isText(right)) {
+			return left.toString().equals(right.toString());
+		} else if (left instanceof Boolean && right instanceof Boolean) {
+			return left.equals(right);
+		}
+		return left == right;
+	}
+	
+	/* ****************************************************************
+	 * Node types
+	 **************************************************************** */
+	
+	/**
+	 * Constant value
+	 */
+	static class Literal extends Node {
+		Object value;
+		private double number;
+		private boolean truth;
+		
+		Literal(Object value) {
+			this.value = value;
+			this.number = toNumber(value);
+			this.truth = truthy(value);
+		}
+		
+		public Object eval(ScriptContext ctx) {
+			return value;
+		}
+		
+		public boolean evalBoolean(ScriptContext ctx) {
+			return truth;
+		}
+		
+		public double evalNumber(ScriptContext ctx) {
+			if (value instanceof Number) {
+				return number;
+			}
+			throw new NotNumeric(value);
+		}
+	}
+	
+	/**
+	 * Variable, bound in the script context
+	 */
+	static class Variable extends Node {
+		String name;
+		
+		Variable(String name) {
+			this.name = name;
+		}
+		
+		public Object eval(ScriptContext ctx) throws ScriptException {
+			Object value = ctx.getAttribute(name);
+			if (value == null && ctx.getAttributesScope(name) == -1) {
+				throw new ScriptException("ReferenceError: \"" + name + "\" is not defined");
+			}
+			return value;
+		}
+	}
+	
+	/**
+	 * Boolean negation
+	 */
+	static class Not extends Node {
+		private Node operand;
+		
+		Not(Node operand) {
+			this.operand = operand;
+		}
+		
+		public Object eval(ScriptContext ctx) throws ScriptException {
+			return !operand.evalBoolean(ctx);
+		}
+		
+		public boolean evalBoolean(ScriptContext ctx) throws ScriptException {
+			return !operand.evalBoolean(ctx);
+		}
+	}
+	
+	/**
+	 * Arithmetic negation
+	 */
+	static class Negate extends Node {
+		private Node operand;
+		
+		Negate(Node operand) {
+			this.operand = operand;
+		}
+		
+		public Object eval(ScriptContext ctx) throws ScriptException {
+			return -toNumber(operand.eval(ctx));
+		}
+		
+		public double evalNumber(ScriptContext ctx) throws ScriptException {
+			return -toNumber(operand.eval(ctx));
+		}
+	}
+	
+	/**
+	 * Short-circuiting && or ||
+	 */
+	static class Logical extends Node {
+		private boolean and;
+		private Node left;
+		private Node right;
+		
+		Logical(boolean and, Node left, Node right) {
+			this.and = and;
+			this.left = left;
+			this.right = right;
+		}
+		
+		public Object eval(ScriptContext ctx) throws ScriptException {
+			return evalBoolean(ctx);
+		}
+		
+		public boolean evalBoolean(ScriptContext ctx) throws ScriptException {
+			if (and) {
+				return left.evalBoolean(ctx) && right.evalBoolean(ctx);
+			} else {
+				return left.evalBoolean(ctx) || right.evalBoolean(ctx);
+			}
+		}
+	}
+	
+	/**
+	 * The conditional operator: test ? then : otherwise
+	 */
+	static class Conditional extends Node {
+		private Node test;
+		private Node then;
+		private Node otherwise;
+		
+		Conditional(Node test, Node then, Node otherwise) {
+			this.test = test;
+			this.then = then;
+			this.otherwise = otherwise;
+		}
+		
+		public Object eval(ScriptContext ctx) throws ScriptException {
+			return test.evalBoolean(ctx) ? then.eval(ctx) : otherwise.eval(ctx);
+		}
+		
+		public boolean evalBoolean(ScriptContext ctx) throws ScriptException {
+			return test.evalBoolean(ctx) ? then.evalBoolean(ctx) : otherwise.evalBoolean(ctx);
+		}
+		
+		public double evalNumber(ScriptContext ctx) throws ScriptException {
+			return test.evalBoolean(ctx) ? then.evalNumber(ctx) : otherwise.evalNumber(ctx);
+		}
+	}
+	
+	/**
+	 * Binary arithmetic: + - * / %
+	 */
+	static class Arithmetic extends Node {
+		private char op;
+		private Node left;
+		private Node right;
+		private volatile boolean numeric = true;	// Speculate that both operands are numbers
+		
+		Arithmetic(char op, Node left, Node right) {
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+		
+		public Object eval(ScriptContext ctx) throws ScriptException {
+			if (numeric) {
+				try {
+					return evalNumber(ctx);
+				} catch (NotNumeric e) {
+					return e.value;
+				}
+			}
+			return evalGeneric(left.eval(ctx), right.eval(ctx));
+		}
+		
+		public double evalNumber(ScriptContext ctx) throws ScriptException {
+			if (numeric) {
+				// If an operand isn't a number, its result is reused rather than evaluating it again
+				double l;
+				try {
+					l = left.evalNumber(ctx);
+				} catch (NotNumeric e) {
+					numeric = false;
+					return number(evalGeneric(e.value, right.eval(ctx)));
+				}
+				try {
+					return apply(l, right.evalNumber(ctx));
+				} catch (NotNumeric e) {
+					numeric = false;
+					return number(evalGeneric(l, e.value));
+				}
+			}
+			return number(evalGeneric(left.eval(ctx), right.eval(ctx)));
+		}
+		
+		private Object evalGeneric(Object l, Object r) {
+			if (op == '+' && !(l == null || l instanceof Number || l instanceof Boolean) 
+					|| op == '+' && !(r == null || r instanceof Number || r instanceof Boolean)) {
+				return toText(l) + toText(r);
+			}
+			return apply(toNumber(l), toNumber(r));
+		}
+		
+		private double apply(double l, double r) {
+			switch (op) {
+			case '+': return l + r;
+			case '-': return l - r;
+			case '*': return l * r;
+			case '/': return l / r;
+			default: return l % r;
+			}
+		}
+	}
+	
+	/**
+	 * Comparisons: == != === !== < <= > >=
+	 */
+	static class Compare extends Node {
+		private String op;
+		private Node left;
+		private Node right;
+		private volatile boolean numeric = true;	// Speculate that both operands are numbers
+		
+		Compare(String op, Node left, Node right) {
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+		
+		public Object eval(ScriptContext ctx) throws ScriptException {
+			return evalBoolean(ctx);
+		}
+		
+		public boolean evalBoolean(ScriptContext ctx) throws ScriptException {
+			if (numeric) {
+				// If an operand isn't a number, its result is reused rather than evaluating it again
+				double l;
+				try {
+					l = left.evalNumber(ctx);
+				} catch (NotNumeric e) {
+					numeric = false;
+					return compareGeneric(e.value, right.eval(ctx));
+				}
+				try {
+					return compare(l, right.evalNumber(ctx));
+				} catch (NotNumeric e) {
+					numeric = false;
+					return compareGeneric(l, e.value);
+				}
+			}
+			return compareGeneric(left.eval(ctx), right.eval(ctx));
+		}
+		
+		private boolean compareGeneric(Object l, Object r) {
+			if (op.equals("==")) {
+				return looseEquals(l, r);
+			} else if (op.equals("!=")) {
+				return !looseEquals(l, r);
+			} else if (op.equals("===")) {
+				return strictEquals(l, r);
+			} else if (op.equals("!==")) {
+				return !strictEquals(l, r);
+			} else if (isText(l) && isText(r)) {
+				int c = l.toString().compareTo(r.toString());
+				return compare(c, 0);
+			} else {
+				return compare(toNumber(l), toNumber(r));
+			}
+		}
+		
+		private boolean compare(double l, double r) {
+			if (op.equals("==") || op.equals("===")) {
+				return l == r;
+			} else if (op.equals("!=") || op.equals("!==")) {
+				return l != r;
+			} else if (op.equals("<")) {
+				return l < r;
+			} else if (op.equals("<=")) {
+				return l <= r;
+			} else if (op.equals(">")) {
+				return l > r;
+			} else {
+				return l >= r;
+			}
+		}
+	}
+	
+	/**
+	 * Member access: either a property (target.name) or a method call (target.name(args))
+	 */
+	abstract static class Member extends Node {
+		Node target;
+		String name;
+		private volatile Accessor cache;	// Accessor for the last receiver type
+		
+		Member(Node target, String name) {
+			this.target = target;
+			this.name = name;
+		}
+		
+		/*
+		 * Find an accessor for this member, given the receiver (and the arguments, in case of a method call)
+		 */
+		abstract Accessor resolve(Class<?> type, Object[] args) throws ScriptException;
+		
+		/*
+		 * Evaluate the arguments (if any)
+		 */
+		abstract Object[] evalArguments(ScriptContext ctx) throws ScriptException;
+		
+		private Object receiver(ScriptContext ctx) throws ScriptException {
+			Object receiver = target.eval(ctx);
+			if (receiver == null) {
+				throw new ScriptException("TypeError: Cannot read property \"" + name + "\" from null");
+			}
+			return receiver;
+		}
+		
+		private Accessor accessor(Object receiver, Object[] args) throws ScriptException {
+			Accessor a = cache;
+			if (a == null || a.type != receiver.getClass() || !a.accepts(args)) {
+				a = resolve(receiver.getClass(), args);
+				cache = a;
+			}
+			return a;
+		}
+		
+		public Object eval(ScriptContext ctx) throws ScriptException {
+			Object receiver = receiver(ctx);
+			Object[] args = evalArguments(ctx);
+			return invoke(ctx, accessor(receiver, args), receiver, args);
+		}
+		
+		public double evalNumber(ScriptContext ctx) throws ScriptException {
+			Object receiver = receiver(ctx);
+			Object[] args = evalArguments(ctx);
+			Accessor a = accessor(receiver, args);
+			if (a.asDouble != null && a.query == null) {
+				try {
+					return (double)a.asDouble.invokeExact(receiver);
+				} catch (Throwable t) {
+					throw wrap(t);
+				}
+			}
+			return number(invoke(ctx, a, receiver, args));
+		}
+		
+		public boolean evalBoolean(ScriptContext ctx) throws ScriptException {
+			Object receiver = receiver(ctx);
+			Object[] args = evalArguments(ctx);
+			Accessor a = accessor(receiver, args);
+			if (a.asBoolean != null && a.query == null) {
+				try {
+					return (boolean)a.asBoolean.invokeExact(receiver);
+				} catch (Throwable t) {
+					throw wrap(t);
+				}
+			}
+			return truthy(invoke(ctx, a, receiver, args));
+		}
+		
+		/*
+		 * Invoke the accessor, unless it's a @pure method that was already called with the same receiver and arguments
+		 */
+		private static Object invoke(ScriptContext ctx, Accessor a, Object receiver, Object[] args) throws ScriptException {
+			if (a.query != null && ctx instanceof ContractContext) {
+				return ((ContractContext)ctx).query(a, receiver, args);
+			}
+			return a.invoke(receiver, args);
+		}
+	}
+	
+	/**
+	 * Property access: a public field or a bean getter (like in JavaScript, non-public fields aren't accessible)
+	 */
+	static class Property extends Member {
+		private static final Object[] noArgs = new Object[0];
+		
+		Property(Node target, String name) {
+			super(target, name);
+		}
+		
+		Object[] evalArguments(ScriptContext ctx) {
+			return noArgs;
+		}
+		
+		Accessor resolve(Class<?> type, Object[] args) throws ScriptException {
+			try {
+				// Public field
+				try {
+					Field f = type.getField(name);
+					Accessor a = Accessor.forField(type, f);
+					if (a != null) {
+						return a;
+					}
+				} catch (NoSuchFieldException e) {}
+				
+				// Bean getter
+				String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+				for (String getter : new String[]{"get" + suffix, "is" + suffix}) {
+					try {
+						Method m = type.getMethod(getter);
+						Accessor a = Accessor.forMethod(type, m);
+						if (a != null && m.getReturnType() != void.class) {
+							return a;
+						}
+					} catch (NoSuchMethodException e) {}
+				}
+				
+				// Length of a string or array
+				if (name.equals("length") && CharSequence.class.isAssignableFrom(type)) {
+					return Accessor.forMethod(type, CharSequence.class.getMethod("length"));
+				} else if (name.equals("length") && type.isArray()) {
+					return Accessor.forArrayLength(type);
+				}
+			} catch (ReflectiveOperationException e) {
+				throw new ScriptException(e);
+			}
+			
+			// Just like JavaScript, unknown properties are undefined
+			return Accessor.undefined(type);
+		}
+	}
+	
+	/**
+	 * Method call
+	 */
+	static class Call extends Member {
+		private Node[] args;
+		
+		Call(Node target, String name, Node[] args) {
+			super(target, name);
+			this.args = args;
+		}
+		
+		Object[] evalArguments(ScriptContext ctx) throws ScriptException {
+			Object[] values = new Object[args.length];
+			for (int i = 0; i < args.length; i++) {
+				values[i] = args[i].eval(ctx);
+			}
+			return values;
+		}
+		
+		/*
+		 * Find the most specific public method that accepts the given arguments
+		 * (If it is overloaded, the choice is only reused for arguments of the same classes.)
+		 */
+		Accessor resolve(Class<?> type, Object[] values) throws ScriptException {
+			Accessor best = null;
+			Class<?>[] bestTypes = null;
+			int candidates = 0;
+			for (Method m : type.getMethods()) {
+				if (!m.getName().equals(name) || m.getParameterTypes().length != values.length) {
+					continue;
+				}
+				candidates++;
+				Class<?>[] types = m.getParameterTypes();
+				if (best != null && !isMoreSpecific(types, bestTypes)) {
+					continue;
+				}
+				Accessor a = Accessor.forMethod(type, m);
+				if (a != null && a.accepts(values)) {
+					best = a;
+					bestTypes = types;
+				}
+			}
+			if (best == null) {
+				throw new ScriptException("TypeError: No applicable method " + name + " in " + type.getName());
+			}
+			if (candidates > 1) {
+				best.resolvedFor = Accessor.classesOf(values);
+			}
+			return best;
+		}
+		
+		/*
+		 * Can each parameter type in a be passed to the corresponding parameter type in b?
+		 */
+		private static boolean isMoreSpecific(Class<?>[] a, Class<?>[] b) {
+			for (int i = 0; i < a.length; i++) {
+				if (!isAssignable(a[i], b[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		private static boolean isAssignable(Class<?> from, Class<?> to) {
+			if (to.isAssignableFrom(from)) {
+				return true;
+			} else if (from.isPrimitive() && to.isPrimitive()) {
+				// Primitive widening (a char widens to int and beyond)
+				int f = widening.indexOf(from == char.class ? int.class : from);
+				int t = widening.indexOf(to);
+				return f != -1 && t != -1 && f <= t;
+			} else if (from.isPrimitive()) {
+				return to.isAssignableFrom(MethodType.methodType(from).wrap().returnType());
+			}
+			return false;
+		}
+		
+		private static List<Class<?>> widening = Arrays.asList(new Class<?>[]{byte.class, short.class, int.class, long.class, float.class, double.class});
+	}
+	
+	/**
+	 * A field or method of a certain receiver type, resolved to MethodHandles
+	 */
+	static class Accessor {
+		private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+		private static final MethodHandle charToString = charToString();
+		
+		Class<?> type;			// Receiver type
+		Class<?>[] parameters;	// Parameter types (in case of methods)
+		MethodHandle generic;		// (Object, Object[])Object
+		MethodHandle asDouble;	// (Object)double, if the member has a numeric primitive type and no parameters
+		MethodHandle asBoolean;	// (Object)boolean, if the member has type boolean and no parameters
+		Method query;			// The method, if it is annotated with @pure (null otherwise)
+		Class<?>[] resolvedFor;	// Classes of the arguments this overloaded method was chosen for (null if it isn't overloaded)
+		
+		private Accessor(Class<?> type, Class<?>[] parameters, MethodHandle handle, boolean isStatic) {
+			this.type = type;
+			this.parameters = parameters;
+			if (isStatic) {
+				handle = MethodHandles.dropArguments(handle, 0, Object.class);
+			}
+			
+			Class<?> ret = handle.type().returnType();
+			MethodType receiverOnly = MethodType.methodType(ret, Object.class);
+			if (parameters.length == 0 && ret.isPrimitive() && ret != boolean.class && ret != char.class && ret != void.class) {
+				asDouble = handle.asType(receiverOnly.changeReturnType(double.class));
+			} else {
+				asDouble = null;
+			}
+			if (parameters.length == 0 && ret == boolean.class) {
+				asBoolean = handle.asType(receiverOnly);
+			} else {
+				asBoolean = null;
+			}
+			
+			// Like in JavaScript, a char becomes a string of length 1
+			if (ret == char.class) {
+				handle = MethodHandles.filterReturnValue(handle, charToString);
+			}
+			generic = handle.asType(MethodType.genericMethodType(parameters.length + 1))
+					.asSpreader(Object[].class, parameters.length);
+		}
+		
+		private static MethodHandle charToString() {
+			try {
+				return lookup.findStatic(String.class, "valueOf", MethodType.methodType(String.class, char.class));
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		
+		static Accessor forField(Class<?> type, Field f) {
+			Field accessible = (Field)accessible(f);
+			if (accessible == null) {
+				return null;
+			}
+			try {
+				return new Accessor(type, new Class<?>[0], lookup.unreflectGetter(accessible), Modifier.isStatic(f.getModifiers()));
+			} catch (IllegalAccessException e) {
+				return null;
+			}
+		}
+		
+		static Accessor forMethod(Class<?> type, Method m) {
+			Method accessible = findAccessible(type, m);
+			if (accessible == null) {
+				return null;
+			}
+			try {
+				Accessor a = new Accessor(type, m.getParameterTypes(), lookup.unreflect(accessible), Modifier.isStatic(m.getModifiers()));
+				if (m.isAnnotationPresent(pure.class) || accessible.isAnnotationPresent(pure.class)) {
+					a.query = accessible;
+				}
+				return a;
+			} catch (IllegalAccessException e) {
+				return null;
+			}
+		}
+		
+		static Accessor forArrayLength(Class<?> type) throws ReflectiveOperationException {
+			MethodHandle length = lookup.findStatic(Array.class, "getLength", MethodType.methodType(int.class, Object.class));
+			return new Accessor(type, new Class<?>[0], length, false);
+		}
+		
+		static Accessor undefined(Class<?> type) {
+			MethodHandle constant = MethodHandles.dropArguments(MethodHandles.constant(Object.class, null), 0, Object.class);
+			return new Accessor(type, new Class<?>[0], constant, false);
+		}
+		
+		/*
+		 * Can the given arguments be passed to this member?
+		 * (In case of an overloaded method, only arguments of the same classes as before are accepted.)
+		 */
+		boolean accepts(Object[] args) {
+			if (args.length != parameters.length) {
+				return false;
+			}
+			if (resolvedFor != null) {
+				for (int i = 0; i < args.length; i++) {
+					if ((args[i] == null ? null : args[i].getClass()) != resolvedFor[i]) {
+						return false;
+					}
+				}
+				return true;
+			}
+			for (int i = 0; i < args.length; i++) {
+				if (convert(args[i], parameters[i]) == NotConvertible.instance) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		static Class<?>[] classesOf(Object[] args) {
+			Class<?>[] classes = new Class<?>[args.length];
+			for (int i = 0; i < args.length; i++) {
+				classes[i] = args[i] == null ? null : args[i].getClass();
+			}
+			return classes;
+		}
+		
+		Object invoke(Object receiver, Object[] args) throws ScriptException {
+			Object[] converted = args;
+			if (parameters.length != 0) {
+				converted = new Object[args.length];
+				for (int i = 0; i < args.length; i++) {
+					converted[i] = convert(args[i], parameters[i]);
+				}
+			}
+			try {
+				return (Object)generic.invokeExact(receiver, converted);
+			} catch (Throwable t) {
+				throw wrap(t);
+			}
+		}
+		
+		/*
+		 * Convert a value to the given parameter type, like JavaScript would when calling a Java method
+		 */
+		private static Object convert(Object value, Class<?> to) {
+			if (value == null) {
+				return to.isPrimitive() ? NotConvertible.instance : null;
+			}
+			Class<?> boxed = box(to);
+			if (boxed.isInstance(value)) {
+				return value;
+			}
+			if (value instanceof Number) {
+				Number n = (Number)value;
+				if (boxed == Integer.class) {
+					return n.intValue();
+				} else if (boxed == Long.class) {
+					return n.longValue();
+				} else if (boxed == Double.class) {
+					return n.doubleValue();
+				} else if (boxed == Float.class) {
+					return n.floatValue();
+				} else if (boxed == Short.class) {
+					return n.shortValue();
+				} else if (boxed == Byte.class) {
+					return n.byteValue();
+				}
+			}
+			return NotConvertible.instance;
+		}
+		
+		private static Class<?> box(Class<?> type) {
+			if (!type.isPrimitive()) {
+				return type;
+			}
+			return MethodType.methodType(type).wrap().returnType();
+		}
+		
+		/*
+		 * Find a version of m that we are allowed to call
+		 * (e.g. a public method declared in a private class may also be declared in a public interface)
+		 */
+		private static Method findAccessible(Class<?> type, Method m) {
+			if (Modifier.isPublic(m.getDeclaringClass().getModifiers())) {
+				return m;
+			}
+			for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+				if (Modifier.isPublic(c.getModifiers())) {
+					try {
+						return c.getMethod(m.getName(), m.getParameterTypes());
+					} catch (NoSuchMethodException e) {}
+				}
+				for (Class<?> i : c.getInterfaces()) {
+					if (Modifier.isPublic(i.getModifiers())) {
+						try {
+							return i.getMethod(m.getName(), m.getParameterTypes());
+						} catch (NoSuchMethodException e) {}
+					}
+				}
+			}
+			return (Method)accessible(m);
+		}
+		
+		/*
+		 * Make a member accessible if needed; returns null if that's not allowed
+		 */
+		private static AccessibleObject accessible(AccessibleObject member) {
+			java.lang.reflect.Member m = (java.lang.reflect.Member)member;
+			if (Modifier.isPublic(m.getModifiers()) && Modifier.isPublic(m.getDeclaringClass().getModifiers())) {
+				return member;
+			}
+			try {
+				member.setAccessible(true);
+				return member;
+			} catch (RuntimeException e) {
+				return null;
+			}
+		}
+		
+		/*
+		 * Marks a value that can't be converted to a parameter type
+		 */
+		private static class NotConvertible {
+			static final NotConvertible instance = new NotConvertible();
+		}
+	}
+	
+	/*
+	 * Wrap anything thrown by a member access in a ScriptException
+	 */
+	static ScriptException wrap(Throwable t) {
+		if (t instanceof ScriptException) {
+			return (ScriptException)t;
+		} else if (t instanceof Error) {
+			throw (Error)t;
+		} else if (t instanceof Exception) {
+			ScriptException e = new ScriptException((Exception)t);
+			return e;
+		}
+		return new ScriptException(t.toString());
+	}
+}
@@ -9,12 +9,23 @@
 
 package be.ac.ua.ansymo.adbc.exceptions;
 
+import be.ac.ua.ansymo.adbc.AdbcConfig;
+
 /**
  * Thrown whenever a contract is broken
+ * 
+ * The message is only formatted when it is first read; the parts it consists of are available separately.
+ * A stack trace is only captured if AdbcConfig.captureStackTraces is enabled.
  * @author Tim Molderez
  */
 public class ContractEnforcementException extends RuntimeException {
 
+	private String description;
+	private String contract;
+	private String where;
+	private String blame;
+	private String message;
+
 	/**
 	 * Constructor
 	 * @param description	short description of the type of contract violation
@@ -23,11 +34,54 @@ public class ContractEnforcementException extends RuntimeException {
 	 * @param blame			which body is to blame
 	 */
 	public ContractEnforcementException(String description, String contract, String where, String blame) {
-		super("\n\t" + description +
-				"\n\tContract:	" + contract +
-				"\n\tWhere:		" + where +
-				"\n\tBlame:		" + blame +
-				"\n");
+		super(null, null, true, AdbcConfig.captureStackTraces);
+		this.description = description;
+		this.contract = contract;
+		this.where = where;
+		this.blame = blame;
+	}
+
+	@Override
+	public String getMessage() {
+		if (message == null) {
+			message = "\n\t" + description +
+					"\n\tContract:	" + contract +
+					"\n\tWhere:		" + where +
+					"\n\tBlame:		" + blame +
+					"\n";
+		}
+		return message;
+	}
+
+	/**
+	 * Retrieve the short description of the type of contract violation
+	 * @return
+	 */
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * Retrieve the contract that is broken
+	 * @return
+	 */
+	public String getContract() {
+		return contract;
+	}
+
+	/**
+	 * Retrieve the body to which the broken contract belongs
+	 * @return
+	 */
+	public String getWhere() {
+		return where;
 	}
 
+	/**
+	 * Retrieve the body that is to blame
+	 * @return
+	 */
+	public String getBlame() {
+		return blame;
+	}
 }
@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.script.ScriptException;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import be.ac.ua.ansymo.adbc.AdbcConfig;
+import be.ac.ua.ansymo.adbc.annotations.ensures;
+import be.ac.ua.ansymo.adbc.annotations.invariant;
+import be.ac.ua.ansymo.adbc.annotations.requires;
+import be.ac.ua.ansymo.adbc.engine.ContractParser;
+import be.ac.ua.ansymo.adbc.utilities.ContractInterpreter;
+import be.ac.ua.ansymo.adbc.utilities.ContractStore;
+import be.ac.ua.ansymo.adbc.utilities.OldContract;
+
+/**
+ * Annotation processor that checks all contracts at compile time, and lists them in a contract index
+ * 
+ * Each clause of a @requires, @ensures or @invariant annotation is parsed, after replacing its $old() calls.
+ * A warning is given if a clause is malformed, if the brackets of an $old() call don't match, or if
+ * $old(), $result or $this is used where it isn't available. These become errors, such that compilation fails,
+ * if the processor option adbc.strict is set (i.e. -Aadbc.strict=true). A warning is also given if $super doesn't refer
+ * to any contract, or if a clause falls outside the subset supported by adbc's own engine (it is then evaluated by the fallback engine).
+ * 
+ * The contract index (see ContractStore.INDEX) lists every annotated class, method and constructor,
+ * such that their contracts can be resolved and compiled at startup rather than on first use (see ContractWarmup.warmUpIndexes).
+ * If only part of the classes is compiled, the entries of the other classes in the existing index are kept.
+ * 
+ * The processor is registered as a service, so javac/ajc run it automatically if adbc is on the classpath.
+ * (Contracts of advice are not visible to annotation processors, so they are still only checked at runtime.)
+ * @author Tim Molderez
+ */
+@SupportedAnnotationTypes({"be.ac.ua.ansymo.adbc.annotations.requires",
+	"be.ac.ua.ansymo.adbc.annotations.ensures",
+	"be.ac.ua.ansymo.adbc.annotations.invariant"})
+@SupportedOptions(ContractProcessor.STRICT)
+public class ContractProcessor extends AbstractProcessor {
+	/**
+	 * Name of the processor option that turns problems with contracts into compilation errors
+	 */
+	public static final String STRICT = "adbc.strict";
+	
+	private static String superKeyword = AdbcConfig.keywordPrefix + "super";
+	private static String thisKeyword = AdbcConfig.keywordPrefix + "this";
+	private static String resultKeyword = AdbcConfig.keywordPrefix + "result";
+	private static String oldKeyword = AdbcConfig.keywordPrefix + "old";
+	private static String procKeyword = AdbcConfig.keywordPrefix + "proc";
+
+	private List<String> index = new ArrayList<String>();
+	private Set<String> compiled = new HashSet<String>();	// Binary names of all classes being compiled
+	private boolean strict;
+
+	@Override
+	public synchronized void init(ProcessingEnvironment env) {
+		super.init(env);
+		strict = Boolean.parseBoolean(env.getOptions().get(STRICT));
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		for (Element e : round.getRootElements()) {
+			addCompiled(e);
+		}
+		for (Element e : round.getElementsAnnotatedWith(invariant.class)) {
+			check(e, "invariant", e.getAnnotation(invariant.class).value());
+		}
+		for (Element e : round.getElementsAnnotatedWith(requires.class)) {
+			check(e, "requires", e.getAnnotation(requires.class).value());
+		}
+		for (Element e : round.getElementsAnnotatedWith(ensures.class)) {
+			check(e, "ensures", e.getAnnotation(ensures.class).value());
+		}
+
+		if (round.processingOver() && !index.isEmpty()) {
+			writeIndex();
+		}
+		return false;
+	}
+
+	/*
+	 * Check all clauses of a contract, and add the contract to the index
+	 * @param e			the annotated class, method or constructor
+	 * @param kind		"requires", "ensures" or "invariant"
+	 * @param clauses	the contract
+	 */
+	private void check(Element e, String kind, String[] clauses) {
+		ExecutableElement body = e instanceof ExecutableElement ? (ExecutableElement)e : null;
+		boolean isStatic = e.getModifiers().contains(Modifier.STATIC);
+
+		for (String clause : clauses) {
+			// Replace the $old() calls by variables, and check their arguments separately
+			String contract = clause;
+			if (mentions(clause, oldKeyword)) {
+				if (!kind.equals("ensures")) {
+					error(e, "$old() can only be used in postconditions: " + clause);
+					continue;
+				}
+				try {
+					OldContract old = ContractInterpreter.parseOldFunction(clause, 0);
+					contract = old.contract;
+					for (String expression : old.expressions) {
+						parse(e, expression, clause);
+					}
+				} catch (ScriptException ex) {
+					error(e, ex.getMessage() + " in: " + clause);
+					continue;
+				}
+			}
+
+			// Check where the special variables are used
+			if (mentions(clause, resultKeyword)) {
+				if (!kind.equals("ensures")) {
+					error(e, "$result can only be used in postconditions: " + clause);
+				} else if (body != null && (body.getKind() == ElementKind.CONSTRUCTOR || body.getReturnType().getKind() == TypeKind.VOID)) {
+					error(e, "$result can't be used, as " + e.getSimpleName() + " has no return value: " + clause);
+				}
+			}
+			if (mentions(clause, thisKeyword)) {
+				if (isStatic) {
+					error(e, "$this can't be used in static methods: " + clause);
+				} else if (kind.equals("requires") && e.getKind() == ElementKind.CONSTRUCTOR) {
+					error(e, "$this can't be used in the precondition of a constructor: " + clause);
+				}
+			}
+			if (mentions(clause, superKeyword) && !hasSuperContract(e)) {
+				warning(e, "$super doesn't refer to any contract, so it is always true: " + clause);
+			}
+
+			// $super is filled in later on, and $proc only occurs in advice; just check the rest
+			parse(e, contract.replace(superKeyword, "true").replace(procKeyword, "true"), clause);
+		}
+
+		String entry = indexEntry(e, kind);
+		if (entry != null) {
+			index.add(entry);
+		}
+	}
+
+	/*
+	 * Parse (part of) a clause with adbc's engine
+	 * Anything outside of the supported subset only produces a warning, as the fallback engine may still handle it.
+	 * @param e			the annotated element
+	 * @param source	the expression to be parsed
+	 * @param clause	the entire clause
+	 */
+	private void parse(Element e, String source, String clause) {
+		try {
+			new ContractParser(source).parse();
+		} catch (ScriptException ex) {
+			String message = ex.getMessage();
+			if (message.startsWith("Unsupported")) {
+				warning(e, message + " (this clause will be evaluated by the fallback engine)");
+			} else {
+				error(e, "Malformed contract; " + message + (source.equals(clause) ? "" : " (in clause: " + clause + ")"));
+			}
+		}
+	}
+
+	/*
+	 * Determine whether the contract of a class/method/constructor has anything for $super to refer to
+	 * (This mirrors the lookup done by the ContractStore at runtime: invariants refer to the superclass;
+	 * methods/constructors refer to a public method/constructor with the same signature in a superclass.)
+	 * @param e
+	 * @return
+	 */
+	private boolean hasSuperContract(Element e) {
+		if (e instanceof TypeElement) {
+			return ((TypeElement)e).getSuperclass().getKind() == TypeKind.DECLARED;
+		}
+
+		ExecutableElement body = (ExecutableElement)e;
+		TypeElement cls = (TypeElement)body.getEnclosingElement();
+		TypeMirror superType = cls.getSuperclass();
+		while (superType.getKind() == TypeKind.DECLARED) {
+			TypeElement superCls = (TypeElement)((DeclaredType)superType).asElement();
+			for (Element member : superCls.getEnclosedElements()) {
+				if (member.getKind() == body.getKind() && member.getModifiers().contains(Modifier.PUBLIC)
+						&& (body.getKind() == ElementKind.CONSTRUCTOR || member.getSimpleName().equals(body.getSimpleName()))
+						&& sameParameters((ExecutableElement)member, body)) {
+					return true;
+				}
+			}
+			superType = superCls.getSuperclass();
+		}
+		return false;
+	}
+
+	/*
+	 * Do two methods/constructors have the same parameter types (after erasure)?
+	 */
+	private boolean sameParameters(ExecutableElement a, ExecutableElement b) {
+		List<? extends VariableElement> pa = a.getParameters();
+		List<? extends VariableElement> pb = b.getParameters();
+		if (pa.size() != pb.size()) {
+			return false;
+		}
+		for (int i = 0; i < pa.size(); i++) {
+			if (!processingEnv.getTypeUtils().isSameType(erasure(pa.get(i).asType()), erasure(pb.get(i).asType()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Create the index entry of an annotated class/method/constructor
+	 * Format: kind, binary class name, member name ("<init>" for constructors, empty for classes)
+	 * and parameter types, separated by tabs; parameter types are separated by commas.
+	 * @return the entry, or null if it can't be described (e.g. a member of a local class)
+	 */
+	private String indexEntry(Element e, String kind) {
+		if (e instanceof TypeElement) {
+			return kind + "\t" + binaryName(e.asType()) + "\t\t";
+		}
+
+		ExecutableElement body = (ExecutableElement)e;
+		StringBuilder types = new StringBuilder();
+		for (VariableElement p : body.getParameters()) {
+			if (types.length() > 0) {
+				types.append(',');
+			}
+			types.append(binaryName(p.asType()));
+		}
+		String name = body.getKind() == ElementKind.CONSTRUCTOR ? "<init>" : body.getSimpleName().toString();
+		return kind + "\t" + binaryName(body.getEnclosingElement().asType()) + "\t" + name + "\t" + types;
+	}
+
+	/*
+	 * Retrieve the name of a type, in the form used by Class.getName() (except for arrays, which are written as e.g. "int[]")
+	 */
+	private String binaryName(TypeMirror type) {
+		TypeMirror erased = erasure(type);
+		if (erased.getKind() == TypeKind.ARRAY) {
+			return binaryName(((ArrayType)erased).getComponentType()) + "[]";
+		} else if (erased.getKind() == TypeKind.DECLARED) {
+			return processingEnv.getElementUtils().getBinaryName((TypeElement)((DeclaredType)erased).asElement()).toString();
+		}
+		return erased.toString();
+	}
+
+	private TypeMirror erasure(TypeMirror type) {
+		return processingEnv.getTypeUtils().erasure(type);
+	}
+
+	/*
+	 * Remember the binary names of a class being compiled and its nested classes
+	 */
+	private void addCompiled(Element e) {
+		if (e instanceof TypeElement) {
+			compiled.add(binaryName(e.asType()));
+			for (Element member : e.getEnclosedElements()) {
+				addCompiled(member);
+			}
+		}
+	}
+
+	/*
+	 * Write all index entries to the contract index
+	 * (Entries of classes that aren't being compiled are copied from the existing index, in case of an incremental build.)
+	 */
+	private void writeIndex() {
+		Set<String> entries = new LinkedHashSet<String>();
+		try {
+			FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", ContractStore.INDEX);
+			BufferedReader reader = new BufferedReader(existing.openReader(true));
+			try {
+				String entry;
+				while ((entry = reader.readLine()) != null) {
+					String[] fields = entry.split("\t", -1);
+					if (fields.length == 4 && !compiled.contains(fields[1])) {
+						entries.add(entry);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException ex) {
+			// There is no existing index
+		} catch (IllegalArgumentException ex) {
+			// The location doesn't support reading
+		}
+		entries.addAll(index);
+		
+		try {
+			FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", ContractStore.INDEX);
+			Writer writer = file.openWriter();
+			for (String entry : entries) {
+				writer.write(entry);
+				writer.write('\n');
+			}
+			writer.close();
+		} catch (IOException ex) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Could not write the contract index: " + ex.getMessage());
+		}
+	}
+
+	/*
+	 * Does a contract mention a keyword? (as a whole identifier, e.g. $old doesn't mention $o)
+	 */
+	private static boolean mentions(String contract, String keyword) {
+		int i = contract.indexOf(keyword);
+		while (i != -1) {
+			int end = i + keyword.length();
+			if (end == contract.length() || !Character.isJavaIdentifierPart(contract.charAt(end))) {
+				return true;
+			}
+			i = contract.indexOf(keyword, end);
+		}
+		return false;
+	}
+
+	/*
+	 * Report a problem with a contract; only an error if the adbc.strict option is set
+	 */
+	private void error(Element e, String message) {
+		processingEnv.getMessager().printMessage(strict ? Diagnostic.Kind.ERROR : Diagnostic.Kind.WARNING, message, e);
+	}
+
+	private void warning(Element e, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message, e);
+	}
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.utilities;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.ac.ua.ansymo.adbc.AdbcConfig;
+
+/**
+ * Runs contract checks on a bounded pool of background threads, if AdbcConfig.auditMode is enabled
+ * 
+ * Any contract violations found by these checks are passed to the listener, as they can no longer be thrown to the caller.
+ * If the checks can't keep up, AdbcConfig.auditBackpressure determines what happens to new checks.
+ * @author Tim Molderez
+ */
+public class ContractAuditor {
+
+	/**
+	 * What to do with a new check if the audit queue is full
+	 */
+	public enum Backpressure {
+		/** Drop the check */
+		DROP,
+		/** Drop the check, and only submit a fraction of the next checks (the fraction recovers as the queue drains) */
+		SAMPLE,
+		/** Block the caller until there's room in the queue */
+		BLOCK
+	}
+
+	/**
+	 * Receives the results of asynchronous contract checks
+	 */
+	public interface Listener {
+		/**
+		 * Called (on an audit thread) whenever an asynchronous contract check fails
+		 * (Contracts are not enforced on any code executed by the listener.)
+		 * @param e		the ContractEnforcementException describing the violation,
+		 * 				or a RuntimeException if the contract could not be evaluated
+		 */
+		public void contractBroken(RuntimeException e);
+	}
+
+	private static volatile ThreadPoolExecutor executor;
+	private static volatile Listener listener = new Listener() {
+		public void contractBroken(RuntimeException e) {
+			e.printStackTrace();
+		}
+	};
+
+	private static AtomicLong dropped = new AtomicLong();
+	private static volatile double submitRate = 1.0;	// Fraction of checks that is submitted (only used by Backpressure.SAMPLE)
+	private static double minSubmitRate = 1.0 / 1024;
+
+	/*
+	 * Private constructor (only static methods)
+	 */
+	private ContractAuditor() {}
+
+	/**
+	 * Set the listener that receives all contract violations found by asynchronous checks
+	 * (By default, violations are printed to System.err.)
+	 * @param l
+	 */
+	public static void setListener(Listener l) {
+		listener = l;
+	}
+
+	/**
+	 * Report a contract violation found by an asynchronous check to the listener
+	 * @param e
+	 */
+	public static void report(RuntimeException e) {
+		listener.contractBroken(e);
+	}
+
+	/**
+	 * Submit a contract check, to be run on a background thread
+	 * (If the audit queue is full, the check may be dropped, depending on AdbcConfig.auditBackpressure.)
+	 * @param check		the contract check; it should pass any violations to report()
+	 */
+	public static void submit(Runnable check) {
+		if (AdbcConfig.auditBackpressure == Backpressure.SAMPLE && submitRate < 1.0
+				&& ThreadLocalRandom.current().nextDouble() >= submitRate) {
+			dropped.incrementAndGet();
+			return;
+		}
+		getExecutor().execute(check);
+	}
+
+	/**
+	 * Retrieve the number of checks that were dropped so far, because the audit queue was full
+	 * @return
+	 */
+	public static long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Retrieve the fraction of checks that is currently submitted, if AdbcConfig.auditBackpressure is SAMPLE
+	 * (It's halved whenever the audit queue is full, and doubled whenever the queue is drained, up to 1.)
+	 * @return
+	 */
+	public static double getSubmitRate() {
+		return submitRate;
+	}
+
+	/**
+	 * Wait until all submitted checks have finished, and stop the audit threads
+	 * (New threads are started if another check is submitted afterwards.)
+	 * @param timeout	maximum time to wait, in milliseconds
+	 * @return true if all checks have finished
+	 * @throws InterruptedException
+	 */
+	public static synchronized boolean shutdown(long timeout) throws InterruptedException {
+		ThreadPoolExecutor exec = executor;
+		if (exec == null) {
+			return true;
+		}
+
+		executor = null;
+		exec.shutdown();
+		return exec.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * Retrieve the executor running the checks, and create it if needed
+	 * (Its size is determined by AdbcConfig.auditThreads and AdbcConfig.auditQueueSize at that point.)
+	 * @return
+	 */
+	private static ThreadPoolExecutor getExecutor() {
+		ThreadPoolExecutor exec = executor;
+		if (exec == null) {
+			synchronized (ContractAuditor.class) {
+				exec = executor;
+				if (exec == null) {
+					int threads = Math.max(1, AdbcConfig.auditThreads);
+					exec = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+							new ArrayBlockingQueue<Runnable>(Math.max(1, AdbcConfig.auditQueueSize)), new AuditThreadFactory(), new QueueFullHandler()) {
+						@Override
+						protected void afterExecute(Runnable r, Throwable t) {
+							// Recover the submission rate once the queue is drained
+							if (submitRate < 1.0 && getQueue().isEmpty()) {
+								submitRate = Math.min(1.0, submitRate * 2);
+							}
+						}
+					};
+					executor = exec;
+				}
+			}
+		}
+		return exec;
+	}
+
+	/*
+	 * Applies AdbcConfig.auditBackpressure if the audit queue is full
+	 */
+	private static class QueueFullHandler implements RejectedExecutionHandler {
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor exec) {
+			if (exec.isShutdown()) {
+				// Don't lose the check; run it on the caller's thread instead
+				r.run();
+				return;
+			}
+
+			switch (AdbcConfig.auditBackpressure) {
+			case BLOCK:
+				try {
+					exec.getQueue().put(r);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					dropped.incrementAndGet();
+				}
+				break;
+			case SAMPLE:
+				submitRate = Math.max(minSubmitRate, submitRate / 2);
+				dropped.incrementAndGet();
+				break;
+			default:
+				dropped.incrementAndGet();
+			}
+		}
+	}
+
+	/*
+	 * Creates the (daemon) audit threads
+	 */
+	private static class AuditThreadFactory implements ThreadFactory {
+		private AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "adbc-audit-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
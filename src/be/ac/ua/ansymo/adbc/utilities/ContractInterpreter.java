@@ -9,13 +9,28 @@
 
 package be.ac.ua.ansymo.adbc.utilities;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 
 import be.ac.ua.ansymo.adbc.AdbcConfig;
+import be.ac.ua.ansymo.adbc.engine.CompiledContract;
+import be.ac.ua.ansymo.adbc.engine.ContractContext;
+import be.ac.ua.ansymo.adbc.engine.ContractEngineFactory;
 
 /**
  * Helper class used to evaluate contracts of classes and aspects
@@ -24,7 +39,19 @@ import be.ac.ua.ansymo.adbc.AdbcConfig;
 public class ContractInterpreter {
 
 	private ScriptEngine engine;
-	private int oldCounter;
+	private String engineName;						// Value of AdbcConfig.engine when this interpreter was created
+	private ContractContext context;				// Context holding this interpreter's own bindings (and results of @pure methods)
+	private Bindings bindings;						// Engine scope bindings of the context
+	private ArrayList<String> boundNames = new ArrayList<String>();	// Names bound since the last reset
+
+	/* The engine factory is only looked up once (again if AdbcConfig.engine changes),
+	 * and released interpreters are kept warm in a pool sized to the number of cores.
+	 * If the engine is thread-safe, all interpreters share the same engine; only their contexts differ. */
+	private static volatile ScriptEngineFactory factory;
+	private static volatile ScriptEngine sharedEngine;
+	private static ConcurrentLinkedQueue<ContractInterpreter> pool = new ConcurrentLinkedQueue<ContractInterpreter>();
+	private static AtomicInteger poolSize = new AtomicInteger();
+	private static int poolCapacity = 2 * Runtime.getRuntime().availableProcessors();
 
 	private static String thisKeyword = AdbcConfig.keywordPrefix + "this";
 	private static String resultKeyword = AdbcConfig.keywordPrefix + "result";
@@ -33,10 +60,109 @@ public class ContractInterpreter {
 
 	/**
 	 * Default constructor
+	 * (Consider using acquire() instead, which reuses a pooled interpreter if possible.)
 	 */
 	public ContractInterpreter() {
-		ScriptEngineManager manager = new ScriptEngineManager();
-		engine = manager.getEngineByName(AdbcConfig.engine);
+		engineName = AdbcConfig.engine;
+		engine = getEngine(engineName);
+		
+		// Each interpreter has its own bindings, so compiled contracts can be evaluated by several interpreters at once
+		bindings = engine.createBindings();
+		context = new ContractContext();
+		context.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+	}
+	
+	/**
+	 * Retrieve an interpreter without any bindings, taken from the pool if one is available
+	 * (Pass it back via release() when done; interpreters that are never released are simply garbage collected.)
+	 * @return
+	 */
+	public static ContractInterpreter acquire() {
+		ContractInterpreter ceval = pool.poll();
+		while (ceval != null) {
+			poolSize.decrementAndGet();
+			// Discard interpreters created for a previous value of AdbcConfig.engine
+			if (ceval.engineName.equals(AdbcConfig.engine)) {
+				return ceval;
+			}
+			ceval = pool.poll();
+		}
+		return new ContractInterpreter();
+	}
+	
+	/**
+	 * Reset all bindings of this interpreter and return it to the pool
+	 * (Don't use this interpreter anymore after calling release().)
+	 */
+	public void release() {
+		reset();
+		if (engineName.equals(AdbcConfig.engine) && poolSize.incrementAndGet() <= poolCapacity) {
+			pool.offer(this);
+		} else {
+			poolSize.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Remove all bindings that were made since the last reset, as well as any memoized results of @pure methods
+	 */
+	public void reset() {
+		for (String name : boundNames) {
+			bindings.remove(name);
+		}
+		boundNames.clear();
+		context.clearQueries();
+	}
+	
+	/**
+	 * Forget the memoized results of @pure methods
+	 * (Call this whenever the program state may have changed since contracts were last evaluated, e.g. before checking postconditions.)
+	 */
+	public void forgetQueries() {
+		context.clearQueries();
+	}
+	
+	/*
+	 * Retrieve a scripting engine with the given name
+	 * (If the engine is thread-safe, i.e. its THREADING parameter is set, the same instance is shared by all interpreters.)
+	 * @param name	name of the scripting engine
+	 * @return
+	 */
+	private static ScriptEngine getEngine(String name) {
+		ScriptEngineFactory f = getEngineFactory(name);
+		if (f.getParameter("THREADING") == null) {
+			return f.getScriptEngine();
+		}
+		
+		ScriptEngine e = sharedEngine;
+		if (e == null || e.getFactory() != f) {
+			e = f.getScriptEngine();
+			sharedEngine = e;
+		}
+		return e;
+	}
+	
+	/*
+	 * Retrieve the factory of the scripting engine with the given name
+	 * (The service provider lookup only happens the first time, or if the engine name has changed.)
+	 * @param name	name of the scripting engine
+	 * @return
+	 */
+	private static ScriptEngineFactory getEngineFactory(String name) {
+		ScriptEngineFactory f = factory;
+		if ((f == null || !f.getNames().contains(name)) && name.equals(ContractEngineFactory.NAME)) {
+			// Our own engine doesn't need to be looked up
+			f = new ContractEngineFactory();
+			factory = f;
+		} else if (f == null || !f.getNames().contains(name)) {
+			ScriptEngine e = new ScriptEngineManager().getEngineByName(name);
+			if (e == null) {
+				throw new RuntimeException("Scripting engine not found: " + name);
+			}
+			f = e.getFactory();
+			factory = f;
+		}
+		return f;
 	}
 
 	/**
@@ -46,13 +172,75 @@ public class ContractInterpreter {
 	 * @throws ScriptException if a contract could not be interpreted
 	 */
 	public String evalContract(String[] contracts) throws ScriptException {
-		boolean passed = true;
-		for (int i = 0; i < contracts.length || !passed; i++) {
-			if (!(Boolean)(engine.eval(contracts[i]))) {
-				return contracts[i];
+		int failed = evalContractIndex(contracts);
+		return failed == -1 ? null : contracts[failed];
+	}
+	
+	/**
+	 * Evaluates a series of contracts, in a single call to the scripting engine
+	 * (The contracts are combined into one expression, which is only created once; see ContractStore.getContractUnit.)
+	 * @param contracts to be evaluated
+	 * @return -1 if all contracts passed; otherwise the index of the first failing contract
+	 * @throws ScriptException if a contract could not be interpreted
+	 */
+	public int evalContractIndex(String[] contracts) throws ScriptException {
+		if (contracts.length == 0 || ContractStore.isTrivial(contracts)) {
+			return -1;
+		} else if (AdbcConfig.collectMetrics) {
+			return evalContractTimed(contracts);
+		} else if (contracts.length == 1) {
+			return evalCompiledBoolean(contracts[0]) ? -1 : 0;
+		}
+		
+		String unit = ContractStore.getInstance().getContractUnit(contracts);
+		if (engine instanceof Compilable) {
+			CompiledScript compiled = ContractStore.getInstance().getCompiledContract(unit, engine);
+			if (compiled instanceof CompiledContract) {
+				return (int)((CompiledContract)compiled).evalNumber(context);
 			}
+			return ((Number)compiled.eval(context)).intValue();
+		} else {
+			return ((Number)engine.eval(unit, context)).intValue();
+		}
+	}
+	
+	/*
+	 * Evaluates a series of contracts one by one, and records the evaluation time of each in the ContractMetrics
+	 * @param contracts to be evaluated
+	 * @return -1 if all contracts passed; otherwise the index of the first failing contract
+	 * @throws ScriptException if a contract could not be interpreted
+	 */
+	private int evalContractTimed(String[] contracts) throws ScriptException {
+		for (int i = 0; i < contracts.length; i++) {
+			long start = System.nanoTime();
+			boolean passed = evalCompiledBoolean(contracts[i]);
+			ContractMetrics.clause(contracts[i], System.nanoTime() - start, !passed);
+			if (!passed) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Compile a series of contracts in advance, in the same form that evalContract() uses,
+	 * such that they're ready to be evaluated the first time
+	 * (Does nothing if the engine doesn't support compilation.)
+	 * @param contracts to be compiled
+	 * @throws ScriptException if a contract could not be compiled
+	 */
+	public void compile(String[] contracts) throws ScriptException {
+		if (!(engine instanceof Compilable) || contracts.length == 0) {
+			return;
+		}
+		
+		ContractStore store = ContractStore.getInstance();
+		for (String contract : contracts) {
+			store.getCompiledContract(contract, engine);
+		}
+		if (contracts.length > 1) {
+			store.getCompiledContract(store.getContractUnit(contracts), engine);
 		}
-		return null;
 	}
 	
 	/**
@@ -63,7 +251,103 @@ public class ContractInterpreter {
 	 * @throws ScriptException
 	 */
 	public Object eval(String expression) throws ScriptException {
-		return engine.eval(expression);
+		return engine.eval(expression, context);
+	}
+
+	/*
+	 * Evaluate an expression in the current context, using its compiled form if the engine supports compilation
+	 * (The compiled form is cached in the ContractStore, so it can be reused by any other interpreter.)
+	 * @param expression
+	 * @return result of the evaluated expression
+	 * @throws ScriptException
+	 */
+	private Object evalCompiled(String expression) throws ScriptException {
+		if (engine instanceof Compilable) {
+			return ContractStore.getInstance().getCompiledContract(expression, engine).eval(context);
+		} else {
+			return engine.eval(expression, context);
+		}
+	}
+
+	/*
+	 * Evaluate a contract in the current context, using its compiled form if the engine supports compilation
+	 * (Contracts compiled by the ContractEngine produce their boolean result without boxing.)
+	 * @param contract
+	 * @return result of the contract
+	 * @throws ScriptException
+	 */
+	private boolean evalCompiledBoolean(String contract) throws ScriptException {
+		if (engine instanceof Compilable) {
+			CompiledScript compiled = ContractStore.getInstance().getCompiledContract(contract, engine);
+			if (compiled instanceof CompiledContract) {
+				return ((CompiledContract)compiled).evalBoolean(context);
+			}
+			return (Boolean)compiled.eval(context);
+		} else {
+			return (Boolean)engine.eval(contract, context);
+		}
+	}
+
+	/*
+	 * Bind a variable, such that it is removed again in the next reset
+	 * @param name
+	 * @param value
+	 */
+	private void bind(String name, Object value) {
+		bindings.put(name, value);
+		boundNames.add(name);
+	}
+
+	/**
+	 * Retrieve the values of all bindings that were made since the last reset
+	 * (These can be restored in another interpreter via restoreBindings().)
+	 * @return
+	 */
+	public HashMap<String, Object> captureBindings() {
+		HashMap<String, Object> values = new HashMap<String, Object>();
+		for (String name : boundNames) {
+			values.put(name, bindings.get(name));
+		}
+		return values;
+	}
+	
+	/**
+	 * Bind each of the given variables, such that they are removed again in the next reset
+	 * @param values	the variables, e.g. as produced by captureBindings()
+	 */
+	public void restoreBindings(Map<String, Object> values) {
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			bind(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/**
+	 * Determine whether any of the given contracts reads a variable that is bound to an object whose state can still change
+	 * (Only null, strings, boxed primitives, BigInteger/BigDecimal, enum constants and classes are considered immutable.
+	 * Variables that aren't bound in this interpreter are ignored.)
+	 * @param contracts
+	 * @return
+	 */
+	public boolean readsMutableState(String[] contracts) {
+		ContractStore store = ContractStore.getInstance();
+		for (String contract : contracts) {
+			for (String name : store.getVariables(contract)) {
+				if (!isImmutable(bindings.get(name))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/*
+	 * Determine whether an object's state can't change
+	 */
+	private static boolean isImmutable(Object value) {
+		return value == null || value instanceof String || value instanceof Boolean || value instanceof Character
+				|| value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof Float
+				|| value instanceof Short || value instanceof Byte || value instanceof BigInteger || value instanceof BigDecimal
+				|| value instanceof Enum || value instanceof Class;
 	}
 
 	/**
@@ -71,7 +355,7 @@ public class ContractInterpreter {
 	 * @param t		the this object to be bound
 	 */
 	public void setThisBinding(Object t) {
-		engine.put(thisKeyword, t);
+		bind(thisKeyword, t);
 	}
 
 	/**
@@ -81,7 +365,7 @@ public class ContractInterpreter {
 	 * @param i		number of the object
 	 */
 	public void setThisBinding(Object t, int i) {
-		engine.put(thisKeyword + i, t);
+		bind(thisKeyword + i, t);
 	}
 
 	/**
@@ -89,7 +373,7 @@ public class ContractInterpreter {
 	 * @param t
 	 */
 	public void setReturnValueBinding(Object t) {
-		engine.put(resultKeyword, t);
+		bind(resultKeyword, t);
 	}
 
 	/**
@@ -101,9 +385,9 @@ public class ContractInterpreter {
 	public void setParameterBindings(String[] names, Object[] values) {
 		for (int i = 0; i < values.length; i++) {
 			if (names!=null && i<names.length) {
-				engine.put(names[i], values[i]);
+				bind(names[i], values[i]);
 			} else {
-				engine.put("arg"+i, values[i]);
+				bind("arg"+i, values[i]);
 			}
 		}
 	}
@@ -116,8 +400,46 @@ public class ContractInterpreter {
 	 * @return
 	 */
 	public String[] evalProc(String[] advContracts, String[] jpContracts, Object aspThis) {
-		String proc = mergeContracts(jpContracts);
 		setThisBinding(aspThis, 1);
+		return resolveProc(advContracts, jpContracts);
+	}
+
+	/**
+	 * Resolve $proc, in case an advice *is* mentioned in an @advisedBy clause
+	 * Additionally, any occurrences of $this in $proc are bound as well.
+	 * @param advContracts			contracts of the user-advice
+	 * @param jpContracts			contracts of the advised join point
+	 * @param advByContracts		contracts of all advice that follow in the @advisedBy clause
+	 * @param advByRuntimeTests		pointcut runtime tests of all advice that follow in the @advisedBy clause
+	 * @param aspThis				"this" objects of the user-advice itself, plus all advice that follow in the @advisedBy clause
+	 * @return						
+	 */
+	public String[] evalProc(String[] advContracts, String[] jpContracts, Vector<String[]> advByContracts, Vector<String> advByRuntimeTests, Vector<Object> aspThis) {
+		setThisBindings(aspThis);
+		return resolveProc(advContracts, jpContracts, advByContracts, advByRuntimeTests);
+	}
+
+	/**
+	 * Bind the "this" objects of a user-advice and the advice that follow it in an @advisedBy clause,
+	 * as $this0, $this1, .. (These are the variables used by resolveProc.)
+	 * @param aspThis	"this" objects of the user-advice itself, plus all advice that follow in the @advisedBy clause
+	 */
+	public void setThisBindings(Vector<Object> aspThis) {
+		for (int i = 0; i < aspThis.size(); i++) {
+			setThisBinding(aspThis.get(i), i);
+		}
+	}
+
+	/**
+	 * Replace $proc in the contracts of an advice that is *not* mentioned in an @advisedBy clause
+	 * (Occurrences of $this are renamed to $this1, which should be bound to the advice's this object.)
+	 * The result only depends on the given contracts, so it can be reused for each execution of the advice.
+	 * @param advContracts	contracts of the user-advice
+	 * @param jpContracts	contracts of the advised join point
+	 * @return
+	 */
+	public static String[] resolveProc(String[] advContracts, String[] jpContracts) {
+		String proc = mergeContracts(jpContracts);
 
 		String[] result = new String[advContracts.length];
 		int i=0;
@@ -130,17 +452,17 @@ public class ContractInterpreter {
 	}
 
 	/**
-	 * Resolve $proc, in case an advice *is* mentioned in an @advisedBy clause
-	 * Additionally, any occurrences of $this in $proc are bound as well.
+	 * Replace $proc in the contracts of an advice that *is* mentioned in an @advisedBy clause
+	 * (Occurrences of $this are renamed to $this0, $this1, .., which should be bound using setThisBindings.)
+	 * The result only depends on the given contracts, so it can be reused for each execution of the advice.
 	 * @param advContracts			contracts of the user-advice
 	 * @param jpContracts			contracts of the advised join point
 	 * @param advByContracts		contracts of all advice that follow in the @advisedBy clause
 	 * @param advByRuntimeTests		pointcut runtime tests of all advice that follow in the @advisedBy clause
-	 * @param aspThis				"this" objects of the user-advice itself, plus all advice that follow in the @advisedBy clause
-	 * @return						
+	 * @return
 	 */
-	public String[] evalProc(String[] advContracts, String[] jpContracts, Vector<String[]> advByContracts, Vector<String> advByRuntimeTests, Vector<Object> aspThis) {
-		return evalProc_pr(-1, advContracts, jpContracts, advByContracts, advByRuntimeTests, aspThis);
+	public static String[] resolveProc(String[] advContracts, String[] jpContracts, Vector<String[]> advByContracts, Vector<String> advByRuntimeTests) {
+		return evalProc_pr(-1, advContracts, jpContracts, advByContracts, advByRuntimeTests);
 	}
 
 	/*
@@ -150,14 +472,12 @@ public class ContractInterpreter {
 	 * @param jpContracts		contracts of method being advised
 	 * @param advByContracts	contracts of advice i+1, i+2, .. in the @advisedBy clause
 	 * @param advByRuntimeTests	runtime tests of advice i+1, i+2, .. in the @advisedBy clause
-	 * @param aspThis			"this" objects of the user-advice itself, plus all advice that follow in the @advisedBy clause
 	 * @return					processed contracts
 	 */
-	private String[] evalProc_pr(int i, String[] advContracts, String[] jpContracts, Vector<String[]> advByContracts, Vector<String> advByRuntimeTests, Vector<Object> aspThis) {
+	private static String[] evalProc_pr(int i, String[] advContracts, String[] jpContracts, Vector<String[]> advByContracts, Vector<String> advByRuntimeTests) {
 		String[] result = new String[advContracts.length];
 
-		String proc = evalProc_ab(i+1, jpContracts, advByContracts, advByRuntimeTests, aspThis);
-		setThisBinding(aspThis.get(i+1), i+1);
+		String proc = evalProc_ab(i+1, jpContracts, advByContracts, advByRuntimeTests);
 
 		int j=0;
 		for (String contract : advContracts) {
@@ -169,16 +489,15 @@ public class ContractInterpreter {
 	}
 	
 	/*
-	 * Helper method that creates a sort-of switch statement over the contracts of advice i, i+1, .. in an @advisedBy clause
-	 * to decide which contracts apply at runtime
+	 * Helper method that creates a sort-of switch expression (a chain of conditional operators) over the contracts of
+	 * advice i, i+1, .. in an @advisedBy clause to decide which contracts apply at runtime
 	 * @param i					start at index i in the @advisedBy clause
 	 * @param jpContracts		contracts of method being advised
 	 * @param advByContracts	contracts of advice i, i+1, i+2, .. in the @advisedBy clause
 	 * @param advByRuntimeTests	runtime tests of advice i, i+1, i+2, .. in the @advisedBy clause
-	 * @param aspThis			"this" objects of the user-advice itself, plus all advice that follow in the @advisedBy clause
 	 * @return					partial effective contracts
 	 */
-	private String evalProc_ab(int i, String[] jpContracts, Vector<String[]> advByContracts, Vector<String> advByRuntimeTests, Vector<Object> aspThis) {
+	private static String evalProc_ab(int i, String[] jpContracts, Vector<String[]> advByContracts, Vector<String> advByRuntimeTests) {
 		// Base case
 		if (i==advByContracts.size()) {
 			return mergeContracts(jpContracts);
@@ -186,29 +505,38 @@ public class ContractInterpreter {
 
 		// Recursive case
 		String result="";
+		String closing="";
 		int j=i;
-		String separator = "if(";
 		while(j<advByRuntimeTests.size() && !advByRuntimeTests.get(j).equals("true")) {
-			String proc = mergeContracts(evalProc_pr(j, advByContracts.get(j), jpContracts, advByContracts, advByRuntimeTests, aspThis));
-			result += separator + advByRuntimeTests.get(j) + "){" + proc  + "}";
-			separator = "else if(";
+			String proc = mergeContracts(evalProc_pr(j, advByContracts.get(j), jpContracts, advByContracts, advByRuntimeTests));
+			result += "((" + advByRuntimeTests.get(j) + ")?(" + proc  + "):";
+			closing += ")";
 			j++;
 		}
 
 		// If we exited the loop because the jth entry is "true", the remaining advice after j are unreachable..
 		if(j != advByRuntimeTests.size()) { 
-			String proc = mergeContracts(evalProc_pr(j, advByContracts.get(j), jpContracts, advByContracts, advByRuntimeTests, aspThis));
-			if(j==0) {
-				result = proc;
-			} else {
-				result += " else {" + proc + "}";
-			}
+			String proc = mergeContracts(evalProc_pr(j, advByContracts.get(j), jpContracts, advByContracts, advByRuntimeTests));
+			result += "(" + proc + ")";
 			// If we exited the loop because we processed all advice in the @advisedBy clause
 		} else {
-			result += " else {" + mergeContracts(jpContracts) + "}";
+			result += "(" + mergeContracts(jpContracts) + ")";
 		}
 
-		return result;
+		return result + closing;
+	}
+
+	/**
+	 * Combines an array of contracts into one expression, which produces the index of the first failing contract (or -1)
+	 * @param contracts
+	 * @return
+	 */
+	public static String createContractUnit(String[] contracts) {
+		StringBuilder unit = new StringBuilder();
+		for (int i = 0; i < contracts.length; i++) {
+			unit.append("!(").append(contracts[i]).append(")?").append(i).append(":");
+		}
+		return unit.append("-1").toString();
 	}
 
 	/**
@@ -228,54 +556,80 @@ public class ContractInterpreter {
 
 	/**
 	 * Evaluates all calls to the old() function in a postcondition (may be composed of multiple parts)
+	 * (The old() calls are only looked up the first time a postcondition is encountered; see ContractStore.getOldContract.)
 	 * @param postCondition	the postcondition
 	 * @return				an altered version of the postcondition is returned, in which each old() call
 	 * 						is replaced by a variable, which is now bound to the result of that old() call
 	 * @throws ScriptException
 	 */
 	public String[] evalOldFunction(String[] postCondition) throws ScriptException {
-		String[] result = new String[postCondition.length];
+		ContractStore store = ContractStore.getInstance();
+		String[] result = postCondition;
 		for (int i = 0; i < postCondition.length; i++) {
-			result[i] = evalOldFunction_helper(postCondition[i]); 
+			OldContract old = store.getOldContract(postCondition[i]);
+			if (old.expressions.length == 0) {
+				continue;
+			}
+			
+			// Take the snapshots
+			for (int j = 0; j < old.expressions.length; j++) {
+				bind(old.variables[j], evalCompiled(old.expressions[j]));
+			}
+			
+			// Only copy the postcondition if anything changes
+			if (result == postCondition) {
+				result = postCondition.clone();
+			}
+			result[i] = old.contract;
 		}
 		return result;
 	}
 
-	/*
-	 * Recursive helper function for evalOldFunction()
+	/**
+	 * Replace each call to the old() function in a postcondition by a variable
+	 * @param postCondition	one part of a postcondition
+	 * @param id			unique number of this postcondition, used to name the variables 
+	 * @return
+	 * @throws ScriptException if the brackets of an old() call don't match
 	 */
-	private String evalOldFunction_helper(String expr) throws ScriptException {
-		// Find the first old call, if any
-		int openPos = expr.indexOf(oldKeyword + "("); 
-		if (openPos == -1) {
-			return expr;
-		}
-		openPos +=5; // Get the index right behind the starting bracket of the old function
-
-		// Find the index of the matching closing bracket
-		int bracketMatcher = 1;
-		int i = openPos;
-		while(i< expr.length() && bracketMatcher != 0) { 
-			if (expr.charAt(i) == '(') {
-				bracketMatcher++;
-			} else if (expr.charAt(i) == ')') {
-				bracketMatcher--;
+	public static OldContract parseOldFunction(String postCondition, int id) throws ScriptException {
+		String oldCall = oldKeyword + "(";
+		StringBuilder contract = new StringBuilder();
+		ArrayList<String> expressions = new ArrayList<String>();
+		ArrayList<String> variables = new ArrayList<String>();
+		
+		int done = 0;
+		int openPos = postCondition.indexOf(oldCall);
+		while (openPos != -1) {
+			openPos += oldCall.length(); // Get the index right behind the starting bracket of the old function
+			
+			// Find the index of the matching closing bracket
+			int bracketMatcher = 1;
+			int i = openPos;
+			while(i< postCondition.length() && bracketMatcher != 0) { 
+				if (postCondition.charAt(i) == '(') {
+					bracketMatcher++;
+				} else if (postCondition.charAt(i) == ')') {
+					bracketMatcher--;
+				}
+				i++;
 			}
-			i++;
-		}
-
-		if (bracketMatcher==0) {
-			oldCounter++;
-
-			Object oldResult = engine.eval(expr.substring(openPos, i-1));
-			engine.put(oldKeyword + oldCounter, oldResult);
-
-			// Return the part before the first old() call + the result of the old() call + recursion on the remainder.
-			return expr.substring(0, openPos-5) 
-					+ oldKeyword + oldCounter 
-					+ evalOldFunction_helper(expr.substring(i));
-		} else {
-			throw new ScriptException("No matching brackets in call to old function.");
+			
+			if (bracketMatcher!=0) {
+				throw new ScriptException("No matching brackets in call to old function.");
+			}
+			
+			// Replace the old() call by a variable
+			String variable = oldKeyword + id + "_" + (variables.size()+1);
+			expressions.add(postCondition.substring(openPos, i-1));
+			variables.add(variable);
+			contract.append(postCondition, done, openPos - oldCall.length()).append(variable);
+			
+			done = i;
+			openPos = postCondition.indexOf(oldCall, done);
 		}
+		contract.append(postCondition, done, postCondition.length());
+		
+		return new OldContract(contract.toString(), expressions.toArray(new String[expressions.size()]), variables.toArray(new String[variables.size()]));
 	}
 }
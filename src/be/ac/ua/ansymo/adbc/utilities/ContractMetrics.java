@@ -0,0 +1,375 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.utilities;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.aspectj.lang.JoinPoint;
+
+import be.ac.ua.ansymo.adbc.AdbcConfig;
+
+/**
+ * Collects evaluation metrics per contract clause and per method/advice, if AdbcConfig.collectMetrics is enabled
+ * 
+ * For each clause, the number of evaluations, the number of failures and a latency histogram are recorded.
+ * For each method/advice, the same is recorded for contract enforcement as a whole, as well as for
+ * the evaluation of its $old() expressions and for checking the substitution principle.
+ * 
+ * All counters are striped per thread and updated without locks. The metrics can be queried
+ * via JMX (see ContractMetricsMBean, registered once metrics are first collected), or directly via getClauses(), getMethods(), ..
+ * @author Tim Molderez
+ */
+public class ContractMetrics implements ContractMetricsMBean {
+	private static ConcurrentHashMap<String, Metric> clauses = new ConcurrentHashMap<String, Metric>();
+	private static ConcurrentHashMap<JoinPoint.StaticPart, Metric> methods = new ConcurrentHashMap<JoinPoint.StaticPart, Metric>();
+	private static ConcurrentHashMap<JoinPoint.StaticPart, Metric> oldSnapshots = new ConcurrentHashMap<JoinPoint.StaticPart, Metric>();
+	private static ConcurrentHashMap<JoinPoint.StaticPart, Metric> substitution = new ConcurrentHashMap<JoinPoint.StaticPart, Metric>();
+
+	private static String NAME = "be.ac.ua.ansymo.adbc:type=ContractMetrics";
+
+	private static Comparator<Metric> BY_TIME = new Comparator<Metric>() {
+		public int compare(Metric a, Metric b) {
+			return Long.compare(b.getTotalTime(), a.getTotalTime());
+		}
+	};
+
+	private static Comparator<Metric> BY_FAILURES = new Comparator<Metric>() {
+		public int compare(Metric a, Metric b) {
+			return Long.compare(b.getFailures(), a.getFailures());
+		}
+	};
+
+	private static volatile boolean registered = false;
+
+	/**
+	 * Start timing (something that is recorded afterwards)
+	 * The first time this is called while metrics are enabled, the MBean is registered.
+	 * @return the current time in nanoseconds, or 0 if metrics are disabled
+	 */
+	public static long start() {
+		if (!AdbcConfig.collectMetrics) {
+			return 0;
+		}
+		if (!registered) {
+			registerMBean();
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Register the ContractMetricsMBean with the platform MBean server (if this hasn't been done yet)
+	 * This happens automatically once metrics are collected; call it directly to make the MBean available earlier.
+	 * If registration fails (e.g. another class loader registered it already), a warning is printed;
+	 * the metrics can still be queried directly.
+	 */
+	public static synchronized void registerMBean() {
+		if (registered) {
+			return;
+		}
+		registered = true;
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new ContractMetrics(), new ObjectName(NAME));
+		} catch (JMException e) {
+			System.err.println("adbc: could not register MBean " + NAME + ": " + e);
+		}
+	}
+
+	/**
+	 * Retrieve the time that has passed since start()
+	 * @param start		value returned by start()
+	 * @return elapsed time in nanoseconds (or 0 if metrics are disabled)
+	 */
+	public static long elapsed(long start) {
+		return start == 0 ? 0 : System.nanoTime() - start;
+	}
+
+	/**
+	 * Record the evaluation of a contract clause
+	 * @param contract	the clause
+	 * @param nanos		evaluation time
+	 * @param failed	whether the clause failed
+	 */
+	public static void clause(String contract, long nanos, boolean failed) {
+		Metric m = clauses.get(contract);
+		if (m == null) {
+			m = register(clauses, contract, contract);
+		}
+		m.record(nanos, failed);
+	}
+
+	/**
+	 * Record the contract enforcement of a method/advice execution
+	 * (Does nothing if metrics are disabled.)
+	 * @param sp		static part of the method/advice execution join point
+	 * @param nanos		time spent on contract enforcement
+	 * @param failed	whether a contract was broken
+	 */
+	public static void method(JoinPoint.StaticPart sp, long nanos, boolean failed) {
+		record(methods, sp, nanos, failed);
+	}
+
+	/**
+	 * Record the evaluation of the $old() expressions of a method/advice
+	 * @param sp		static part of the method/advice execution join point
+	 * @param nanos		evaluation time
+	 */
+	public static void oldSnapshot(JoinPoint.StaticPart sp, long nanos) {
+		record(oldSnapshots, sp, nanos, false);
+	}
+
+	/**
+	 * Record checking the substitution principle for a method/advice (i.e. walking its type hierarchy)
+	 * @param sp		static part of the method/advice execution join point
+	 * @param nanos		time spent on the check
+	 */
+	public static void substitution(JoinPoint.StaticPart sp, long nanos) {
+		record(substitution, sp, nanos, false);
+	}
+
+	/**
+	 * Retrieve the metrics of all contract clauses evaluated so far
+	 * @return
+	 */
+	public static ArrayList<Metric> getClauses() {
+		return new ArrayList<Metric>(clauses.values());
+	}
+
+	/**
+	 * Retrieve the contract enforcement metrics of all methods/advice executed so far
+	 * @return
+	 */
+	public static ArrayList<Metric> getMethods() {
+		return new ArrayList<Metric>(methods.values());
+	}
+
+	/**
+	 * Retrieve the $old() evaluation metrics of all methods/advice executed so far
+	 * @return
+	 */
+	public static ArrayList<Metric> getOldSnapshots() {
+		return new ArrayList<Metric>(oldSnapshots.values());
+	}
+
+	/**
+	 * Retrieve the substitution principle metrics of all methods/advice executed so far
+	 * @return
+	 */
+	public static ArrayList<Metric> getSubstitutionChecks() {
+		return new ArrayList<Metric>(substitution.values());
+	}
+
+	public boolean isEnabled() {
+		return AdbcConfig.collectMetrics;
+	}
+
+	public void setEnabled(boolean enabled) {
+		AdbcConfig.collectMetrics = enabled;
+	}
+
+	public void reset() {
+		clauses.clear();
+		methods.clear();
+		oldSnapshots.clear();
+		substitution.clear();
+	}
+
+	public String[] topClausesByTime(int n) {
+		return top(getClauses(), n, BY_TIME);
+	}
+
+	public String[] topClausesByFailures(int n) {
+		return top(getClauses(), n, BY_FAILURES);
+	}
+
+	public String[] topMethodsByTime(int n) {
+		return top(getMethods(), n, BY_TIME);
+	}
+
+	public String[] topOldSnapshotsByTime(int n) {
+		return top(getOldSnapshots(), n, BY_TIME);
+	}
+
+	public String[] topSubstitutionChecksByTime(int n) {
+		return top(getSubstitutionChecks(), n, BY_TIME);
+	}
+
+	/*
+	 * Record a measurement of a method/advice
+	 */
+	private static void record(ConcurrentHashMap<JoinPoint.StaticPart, Metric> map, JoinPoint.StaticPart sp, long nanos, boolean failed) {
+		if (!AdbcConfig.collectMetrics || (nanos == 0 && !failed)) {
+			return;
+		}
+
+		Metric m = map.get(sp);
+		if (m == null) {
+			m = register(map, sp, sp.getSignature().toLongString());
+		}
+		m.record(nanos, failed);
+	}
+
+	/*
+	 * Add a new metric to a map (unless another thread was first)
+	 */
+	private static <K> Metric register(ConcurrentHashMap<K, Metric> map, K key, String name) {
+		Metric m = new Metric(name);
+		Metric existing = map.putIfAbsent(key, m);
+		return existing == null ? m : existing;
+	}
+
+	/*
+	 * Sort a list of metrics and describe the first n
+	 */
+	private static String[] top(ArrayList<Metric> metrics, int n, Comparator<Metric> order) {
+		Collections.sort(metrics, order);
+		String[] result = new String[Math.min(n, metrics.size())];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = metrics.get(i).toString();
+		}
+		return result;
+	}
+
+	/**
+	 * Counters and a latency histogram for one clause or method/advice
+	 * 
+	 * Each thread updates one of several stripes, which are only summed when the metric is read.
+	 * The histogram has one bucket per power of two (in nanoseconds).
+	 */
+	public static class Metric {
+		private static int COUNT = 0;
+		private static int FAILURES = 1;
+		private static int TIME = 2;
+		private static int BUCKETS = 40;
+		private static int STRIPE_SIZE = 48;	// 3 counters + BUCKETS, rounded up to whole cache lines
+		private static int STRIPES = stripes();
+
+		private String name;
+		private AtomicLongArray data = new AtomicLongArray(STRIPES * STRIPE_SIZE);
+
+		/**
+		 * Constructor
+		 * @param name	the contract clause, or the signature of the method/advice
+		 */
+		public Metric(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Record one measurement
+		 * @param nanos
+		 * @param failed
+		 */
+		public void record(long nanos, boolean failed) {
+			int stripe = ((int)Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_SIZE;
+			data.incrementAndGet(stripe + COUNT);
+			if (failed) {
+				data.incrementAndGet(stripe + FAILURES);
+			}
+			if (nanos > 0) {
+				data.addAndGet(stripe + TIME, nanos);
+				data.incrementAndGet(stripe + 3 + Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+			}
+		}
+
+		/**
+		 * Retrieve the contract clause, or the signature of the method/advice
+		 * @return
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Retrieve the number of measurements
+		 * @return
+		 */
+		public long getCount() {
+			return sum(COUNT);
+		}
+
+		/**
+		 * Retrieve the number of failed measurements
+		 * @return
+		 */
+		public long getFailures() {
+			return sum(FAILURES);
+		}
+
+		/**
+		 * Retrieve the total time of all measurements, in nanoseconds
+		 * @return
+		 */
+		public long getTotalTime() {
+			return sum(TIME);
+		}
+
+		/**
+		 * Retrieve an upper bound of a percentile of the measured times
+		 * @param p		percentile, between 0 and 1
+		 * @return the upper bound of the histogram bucket containing the percentile, in nanoseconds
+		 */
+		public long getPercentile(double p) {
+			long[] histogram = new long[BUCKETS];
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				histogram[i] = sum(3 + i);
+				total += histogram[i];
+			}
+
+			long rank = (long)Math.ceil(p * total);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += histogram[i];
+				if (seen >= rank && seen > 0) {
+					return 1L << i;
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			long count = getCount();
+			return name + ": count=" + count + ", failures=" + getFailures()
+					+ ", mean=" + (count == 0 ? 0 : getTotalTime() / count) + "ns"
+					+ ", p50<=" + getPercentile(0.5) + "ns, p99<=" + getPercentile(0.99) + "ns";
+		}
+
+		/*
+		 * Sum a counter over all stripes
+		 */
+		private long sum(int index) {
+			long sum = 0;
+			for (int i = 0; i < STRIPES; i++) {
+				sum += data.get(i * STRIPE_SIZE + index);
+			}
+			return sum;
+		}
+
+		/*
+		 * Number of stripes: the number of processors, rounded up to a power of two (at most 16)
+		 */
+		private static int stripes() {
+			int s = 1;
+			while (s < Runtime.getRuntime().availableProcessors() && s < 16) {
+				s <<= 1;
+			}
+			return s;
+		}
+	}
+}
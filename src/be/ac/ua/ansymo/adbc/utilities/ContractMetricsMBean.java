@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.utilities;
+
+/**
+ * Management interface of the ContractMetrics, registered as "be.ac.ua.ansymo.adbc:type=ContractMetrics"
+ * 
+ * Each entry returned by the top-N queries describes one contract clause or method/advice, e.g.:
+ * 	"amount>0: count=1200, failures=3, mean=850ns, p50<=1024ns, p99<=4096ns"
+ * @author Tim Molderez
+ */
+public interface ContractMetricsMBean {
+	/**
+	 * Are metrics being collected? (see AdbcConfig.collectMetrics)
+	 * @return
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * Start or stop collecting metrics
+	 * @param enabled
+	 */
+	public void setEnabled(boolean enabled);
+
+	/**
+	 * Discard all metrics collected so far
+	 */
+	public void reset();
+
+	/**
+	 * Retrieve the contract clauses with the highest total evaluation time
+	 * @param n		maximum number of clauses
+	 * @return
+	 */
+	public String[] topClausesByTime(int n);
+
+	/**
+	 * Retrieve the contract clauses that failed most often
+	 * @param n		maximum number of clauses
+	 * @return
+	 */
+	public String[] topClausesByFailures(int n);
+
+	/**
+	 * Retrieve the methods/advice with the highest total contract enforcement time
+	 * (This excludes the time spent in the method/advice itself.)
+	 * @param n		maximum number of methods/advice
+	 * @return
+	 */
+	public String[] topMethodsByTime(int n);
+
+	/**
+	 * Retrieve the methods/advice that spent the most time evaluating $old() expressions
+	 * @param n		maximum number of methods/advice
+	 * @return
+	 */
+	public String[] topOldSnapshotsByTime(int n);
+
+	/**
+	 * Retrieve the methods/advice that spent the most time checking the substitution principle
+	 * @param n		maximum number of methods/advice
+	 * @return
+	 */
+	public String[] topSubstitutionChecksByTime(int n);
+}
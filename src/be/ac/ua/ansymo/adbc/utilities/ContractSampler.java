@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.utilities;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aspectj.lang.JoinPoint;
+
+import be.ac.ua.ansymo.adbc.AdbcConfig;
+
+/**
+ * Decides which invocations of a method/advice have their contracts checked,
+ * based on AdbcConfig.samplingRate and AdbcConfig.adaptiveSampling
+ * 
+ * Sampling is tracked per join point shadow (i.e. per method/advice body).
+ * Note that counters are updated without locking; under contention an invocation may occasionally
+ * be checked or skipped when it shouldn't have been, which is fine for sampling purposes.
+ * @author Tim Molderez
+ */
+public class ContractSampler {
+	private static ConcurrentHashMap<JoinPoint.StaticPart, Site> sites = new ConcurrentHashMap<JoinPoint.StaticPart, Site>();
+
+	/*
+	 * Private constructor (only static methods)
+	 */
+	private ContractSampler() {}
+
+	/**
+	 * Determine whether the contracts of this invocation should be checked
+	 * @param sp	static part of the join point (thisJoinPointStaticPart)
+	 * @return true if the contracts should be checked; false if contract enforcement should be skipped entirely
+	 */
+	public static boolean sample(JoinPoint.StaticPart sp) {
+		// Everything is checked by default; don't bother with any bookkeeping then
+		if (!AdbcConfig.adaptiveSampling) {
+			return AdbcConfig.samplingRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < AdbcConfig.samplingRate;
+		}
+
+		// Only check every interval-th invocation
+		Site site = getSite(sp);
+		if (site.countdown.decrementAndGet() > 0) {
+			return false;
+		}
+		site.countdown.set(site.interval);
+		return AdbcConfig.samplingRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < AdbcConfig.samplingRate;
+	}
+
+	/**
+	 * Report that all contracts of a checked invocation passed
+	 * (After AdbcConfig.adaptiveSamplingThreshold passes in a row, the sampling interval is doubled.)
+	 * @param sp	static part of the join point
+	 */
+	public static void passed(JoinPoint.StaticPart sp) {
+		if (!AdbcConfig.adaptiveSampling) {
+			return;
+		}
+
+		Site site = getSite(sp);
+		if (++site.passes >= AdbcConfig.adaptiveSamplingThreshold) {
+			site.passes = 0;
+			site.interval = Math.min(site.interval * 2, Math.max(1, AdbcConfig.adaptiveSamplingMaxInterval));
+		}
+	}
+
+	/**
+	 * Report that a contract was broken; from now on, every invocation is checked again
+	 * (This includes contracts broken in nested calls, so we err on the side of checking more.)
+	 * @param sp	static part of the join point
+	 */
+	public static void violated(JoinPoint.StaticPart sp) {
+		if (!AdbcConfig.adaptiveSampling) {
+			return;
+		}
+
+		Site site = getSite(sp);
+		site.passes = 0;
+		site.interval = 1;
+		site.countdown.set(0);
+	}
+
+	/**
+	 * Forget all sampling statistics; every method/advice starts out being checked on every invocation again
+	 */
+	public static void reset() {
+		sites.clear();
+	}
+
+	/*
+	 * Retrieve the sampling state of a join point shadow
+	 * @param sp	static part of the join point
+	 * @return
+	 */
+	private static Site getSite(JoinPoint.StaticPart sp) {
+		Site site = sites.get(sp);
+		if (site == null) {
+			site = new Site();
+			Site existing = sites.putIfAbsent(sp, site);
+			if (existing != null) {
+				site = existing;
+			}
+		}
+		return site;
+	}
+
+	/*
+	 * Sampling state of one join point shadow
+	 */
+	private static class Site {
+		public AtomicInteger countdown = new AtomicInteger();	// Number of invocations to go until the next check
+		public volatile int interval = 1;						// Check every interval-th invocation
+		public int passes;										// Number of checks passed in a row
+	}
+}
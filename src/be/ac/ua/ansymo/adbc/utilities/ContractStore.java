@@ -9,10 +9,29 @@
 
 package be.ac.ua.ansymo.adbc.utilities;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
 
 import be.ac.ua.ansymo.adbc.AdbcConfig;
 import be.ac.ua.ansymo.adbc.annotations.ensures;
@@ -26,11 +45,51 @@ import be.ac.ua.ansymo.adbc.annotations.requires;
  */
 public class ContractStore {
 	private static String superKeyword = AdbcConfig.keywordPrefix + "super";
+	private static Class<?>[] primitives = {boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class};
 	
 	private static ContractStore instance = new ContractStore();
-	private HashMap<String, String[]> preStore = new HashMap<String, String[]>();
-	private HashMap<String, String[]> postStore = new HashMap<String, String[]>();
-	private HashMap<String, String[]> invStore = new HashMap<String, String[]>();
+	
+	/**
+	 * Location of the contract indexes generated by the ContractProcessor
+	 */
+	public static String INDEX = "META-INF/adbc/contracts.idx";
+	
+	/* Methods/constructors are used as keys directly; their hashCode/equals are cheap, unlike building a string.
+	 * (Note that we can't compare by identity: Class.getMethod returns a new copy on every call.) */
+	private ConcurrentHashMap<AccessibleObject, LazyContract> preStore = new ConcurrentHashMap<AccessibleObject, LazyContract>();
+	private ConcurrentHashMap<AccessibleObject, LazyContract> postStore = new ConcurrentHashMap<AccessibleObject, LazyContract>();
+	private ClassValue<LazyContract> invStore = new ClassValue<LazyContract>() {
+		@Override
+		protected LazyContract computeValue(Class<?> cls) {
+			return new LazyContract(cls, invariant.class);
+		}
+	};
+	
+	/* Compiled contracts, per kind of scripting engine (AdbcConfig.engine can change at any time..) */
+	private ClassValue<ConcurrentHashMap<String, CompiledScript>> compiledStore = new ClassValue<ConcurrentHashMap<String, CompiledScript>>() {
+		@Override
+		protected ConcurrentHashMap<String, CompiledScript> computeValue(Class<?> engineClass) {
+			return new ConcurrentHashMap<String, CompiledScript>();
+		}
+	};
+	private ConcurrentHashMap<List<String>, String> unitStore = new ConcurrentHashMap<List<String>, String>();
+	private ConcurrentHashMap<String, OldContract> oldStore = new ConcurrentHashMap<String, OldContract>();
+	private ConcurrentHashMap<String, String[]> variableStore = new ConcurrentHashMap<String, String[]>();
+	private AtomicInteger oldCounter = new AtomicInteger();
+	
+	/* Behavioural subtyping plans, per dynamic type (and per method) */
+	private ClassValue<ConcurrentHashMap<Method, SubtypingPlan>> planStore = new ClassValue<ConcurrentHashMap<Method, SubtypingPlan>>() {
+		@Override
+		protected ConcurrentHashMap<Method, SubtypingPlan> computeValue(Class<?> cls) {
+			return new ConcurrentHashMap<Method, SubtypingPlan>();
+		}
+	};
+	private ClassValue<SubtypingPlan> constructorPlanStore = new ClassValue<SubtypingPlan>() {
+		@Override
+		protected SubtypingPlan computeValue(Class<?> cls) {
+			return createConstructorPlan(cls);
+		}
+	};
 	String[] defaultContract = new String[]{"$super"};
 	
 	/*
@@ -46,6 +105,132 @@ public class ContractStore {
 		return instance;
 	}
 	
+	/**
+	 * Resolve and compile the contracts of all classes, methods and constructors listed in the contract indexes
+	 * that a class loader can find, such that this doesn't happen when they are first used
+	 * (Anything that can't be read, found or compiled is skipped and counted as a failure; it will produce an error when it's used.
+	 * This is normally done via ContractWarmup.warmUpIndexes().)
+	 * @param loader	class loader used to find the indexes and the classes they refer to
+	 * @param report	the number of preloaded contracts and failures are added to this report
+	 */
+	public void preload(ClassLoader loader, ContractWarmup.Report report) {
+		Enumeration<URL> indexes;
+		try {
+			indexes = loader.getResources(INDEX);
+		} catch (IOException e) {
+			report.failures.incrementAndGet();
+			return;
+		}
+		
+		HashSet<String> classes = new HashSet<String>();
+		ContractInterpreter ceval = ContractInterpreter.acquire();
+		try {
+			while (indexes.hasMoreElements()) {
+				try {
+					BufferedReader reader = new BufferedReader(new InputStreamReader(indexes.nextElement().openStream(), "UTF-8"));
+					try {
+						String entry;
+						while ((entry = reader.readLine()) != null) {
+							String[] fields = entry.split("\t", -1);
+							if (fields.length > 1 && classes.add(fields[1])) {
+								report.classes.incrementAndGet();
+							}
+							if (preload(entry, loader, ceval)) {
+								report.contracts.incrementAndGet();
+							} else {
+								report.failures.incrementAndGet();
+							}
+						}
+					} finally {
+						reader.close();
+					}
+				} catch (IOException e) {
+					report.failures.incrementAndGet();
+				}
+			}
+		} finally {
+			ceval.release();
+		}
+	}
+	
+	/*
+	 * Resolve and compile the contract described by an index entry
+	 * @param entry		kind, class name, member name and parameter types, separated by tabs (see ContractProcessor)
+	 * @param loader	class loader used to find the class
+	 * @param ceval		interpreter used to compile the contract
+	 * @return true if successful
+	 */
+	private boolean preload(String entry, ClassLoader loader, ContractInterpreter ceval) {
+		String[] fields = entry.split("\t", -1);
+		if (fields.length != 4) {
+			return false;
+		}
+		
+		try {
+			Class<?> cls = Class.forName(fields[1], false, loader);
+			if (fields[0].equals("invariant")) {
+				preload(cls, ceval);
+				return true;
+			}
+			
+			String[] names = fields[3].length() == 0 ? new String[0] : fields[3].split(",");
+			Class<?>[] types = new Class<?>[names.length];
+			for (int i = 0; i < names.length; i++) {
+				types[i] = loadType(names[i], loader);
+			}
+			AccessibleObject body = fields[2].equals("<init>") ? cls.getDeclaredConstructor(types) : cls.getDeclaredMethod(fields[2], types);
+			preload(body, ceval);
+			return true;
+		} catch (Exception e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Resolve and compile the contracts of a class (its invariants), or of a method/constructor (its pre- and postconditions)
+	 * @param body		the class, method or constructor
+	 * @param ceval		interpreter used to compile the contracts
+	 * @throws ScriptException if a contract could not be compiled
+	 */
+	public void preload(AnnotatedElement body, ContractInterpreter ceval) throws ScriptException {
+		if (body instanceof Class<?>) {
+			ceval.compile(getInvariant((Class<?>)body));
+			return;
+		}
+		
+		AccessibleObject member = (AccessibleObject)body;
+		ceval.compile(getPre(member));
+		
+		// Postconditions are evaluated after their $old() calls are replaced
+		String[] post = getPost(member).clone();
+		for (int i = 0; i < post.length; i++) {
+			OldContract old = getOldContract(post[i]);
+			for (String expression : old.expressions) {
+				ceval.compile(new String[]{expression});
+			}
+			post[i] = old.contract;
+		}
+		ceval.compile(post);
+	}
+	
+	/*
+	 * Load a type by its name, as written in a contract index (e.g. "int", "java.lang.String[]")
+	 */
+	private static Class<?> loadType(String name, ClassLoader loader) throws ClassNotFoundException {
+		if (name.endsWith("[]")) {
+			return Array.newInstance(loadType(name.substring(0, name.length() - 2), loader), 0).getClass();
+		}
+		
+		for (Class<?> primitive : primitives) {
+			if (primitive.getName().equals(name)) {
+				return primitive;
+			}
+		}
+		return Class.forName(name, false, loader);
+	}
+	
 	/**
 	 * Retrieve the precondition of a certain method
 	 * (with $super already filled in..)
@@ -53,39 +238,17 @@ public class ContractStore {
 	 * @return
 	 */
 	public String[] getPre(AccessibleObject body) {
-		String key = body.toString();
-		String[] pre = preStore.get(key);
+		LazyContract pre = preStore.get(body);
 		
-		// Cache miss; go find the contract and fill in $super
+		// Cache miss; register a placeholder, which will find the contract and fill in $super
 		if (pre == null) {
-			// Find the contract
-			if (body.isAnnotationPresent(requires.class)) {
-				pre = body.getAnnotation(requires.class).value();
-			} else {
-				pre = defaultContract;
+			pre = new LazyContract(body, requires.class);
+			LazyContract existing = preStore.putIfAbsent(body, pre);
+			if (existing != null) {
+				pre = existing;
 			}
-			
-			// Fill in $super
-			AccessibleObject overridden = null;
-			if (body instanceof Method) {
-				overridden = getOverriddenMethod((Method)body);	
-			} else if (body instanceof Constructor<?>) {
-				overridden = getOverriddenConstructor((Constructor<?>)body);
-			}
-			
-			String overriddenPre = "true";
-			if (overridden != null) {
-				overriddenPre = ContractInterpreter.mergeContracts((getPre(overridden)));
-			}
-			
-			int i=0;
-			for (String contract : pre) {
-				pre[i]=contract.replace(superKeyword, "(" + overriddenPre + ")");
-				i++;
-			}
-			preStore.put(key, pre);
 		}
-		return pre;
+		return pre.get();
 	}
 	
 	/**
@@ -95,19 +258,54 @@ public class ContractStore {
 	 * @return
 	 */
 	public String[] getPost(AccessibleObject body) {
-		String key = body.toString();
-		String[] post = postStore.get(key);
-		
-		// Cache miss; find the contract and fill in $super
-		if(post==null) {
-			// Find the contract
-			if (body.isAnnotationPresent(ensures.class)) {
-				post = body.getAnnotation(ensures.class).value();
-			} else {
-				post = defaultContract;
+		LazyContract post = postStore.get(body);
+		
+		// Cache miss; register a placeholder, which will find the contract and fill in $super
+		if (post == null) {
+			post = new LazyContract(body, ensures.class);
+			LazyContract existing = postStore.putIfAbsent(body, post);
+			if (existing != null) {
+				post = existing;
 			}
-			
-			// Fill in $super
+		}
+		return post.get();
+	}
+	
+	/**
+	 * Retrieve the invariants of a class
+	 * (with $super already filled in..)
+	 * @param body
+	 * @return
+	 */
+	public String[] getInvariant(Class<?> cls) {
+		return invStore.get(cls).get();
+	}
+	
+	/*
+	 * Find the contract of a method/constructor/class and fill in $super
+	 * @param body	the method, constructor or class
+	 * @param kind	the kind of contract (requires, ensures or invariant)
+	 * @return
+	 */
+	private String[] resolveContract(AnnotatedElement body, Class<? extends Annotation> kind) {
+		// Find the contract
+		String[] contract = defaultContract;
+		if (kind == requires.class && body.isAnnotationPresent(requires.class)) {
+			contract = body.getAnnotation(requires.class).value();
+		} else if (kind == ensures.class && body.isAnnotationPresent(ensures.class)) {
+			contract = body.getAnnotation(ensures.class).value();
+		} else if (kind == invariant.class && body.isAnnotationPresent(invariant.class)) {
+			contract = body.getAnnotation(invariant.class).value();
+		}
+		
+		// Find the contract that $super refers to
+		String superContract = "true";
+		if (body instanceof Class<?>) {
+			Class<?> superCls = ((Class<?>)body).getSuperclass();
+			if (superCls != null) {
+				superContract = ContractInterpreter.mergeContracts(getInvariant(superCls));
+			}
+		} else {
 			AccessibleObject overridden = null;
 			if (body instanceof Method) {
 				overridden = getOverriddenMethod((Method)body);	
@@ -115,58 +313,303 @@ public class ContractStore {
 				overridden = getOverriddenConstructor((Constructor<?>)body);
 			}
 			
-			String overriddenPost = "true";
 			if (overridden != null) {
-				overriddenPost = ContractInterpreter.mergeContracts((getPost(overridden)));
+				superContract = ContractInterpreter.mergeContracts(kind == requires.class ? getPre(overridden) : getPost(overridden));
 			}
-			
-			int i=0;
-			for (String contract : post) {
-				post[i]=contract.replace(superKeyword, "(" + overriddenPost + ")");
-				i++;
+		}
+		
+		// Fill in $super, and leave out any parts that are trivially true (e.g. when $super refers to nothing)
+		ArrayList<String> result = new ArrayList<String>(contract.length);
+		for (int i = 0; i < contract.length; i++) {
+			String part = contract[i].replace(superKeyword, "(" + superContract + ")");
+			if (!isTriviallyTrue(part)) {
+				result.add(part);
 			}
-			
-			postStore.put(key, post);
 		}
 		
-		return post;
+		if (result.isEmpty()) {
+			return new String[]{"true"};
+		}
+		return result.toArray(new String[result.size()]);
 	}
 	
 	/**
-	 * Retrieve the invariants of a class
-	 * (with $super already filled in..)
-	 * @param body
+	 * Determine whether a contract (as returned by the ContractStore) always holds
+	 * (The ContractStore simplifies such contracts to {"true"} when resolving them.)
+	 * @param contract
 	 * @return
 	 */
-	public String[] getInvariant(Class<?> cls) {
-		String key = cls.toString();
-		String[] inv = invStore.get(key);
-		
-		// Cache miss; find the contract and fill in $super
-		if(inv==null) {
-			// Find the contract
-			if (cls.isAnnotationPresent(invariant.class)) {
-				inv = cls.getAnnotation(invariant.class).value();
-			} else {
-				inv = defaultContract;
+	public static boolean isTrivial(String[] contract) {
+		return contract.length == 1 && contract[0].equals("true");
+	}
+	
+	/**
+	 * Determine whether all contracts involved in a method call always hold,
+	 * such that the call can proceed without any contract enforcement
+	 * (The answer is cached in the SubtypingPlan of the method and dynamic type, so usually this costs only one plan lookup.)
+	 * @param dynType		dynamic type of the receiver
+	 * @param m				the method being called
+	 * @param staticType	static type of the receiver
+	 * @return
+	 */
+	public boolean isTrivial(Class<?> dynType, Method m, Class<?> staticType) {
+		SubtypingPlan plan = getSubtypingPlan(dynType, m);
+		SubtypingPlan.CallCheck check = plan.callCheck;
+		if (check == null || check.staticType != staticType) {
+			check = new SubtypingPlan.CallCheck(staticType, plan.trivial && isTrivial(getPre(m)) && isTrivial(getPost(m))
+					&& isTrivial(getInvariant(staticType)));
+			plan.callCheck = check;
+		}
+		return check.trivial;
+	}
+	
+	/*
+	 * Determine whether one part of a contract consists only of "true" literals, && operators and brackets
+	 * @param part
+	 * @return
+	 */
+	private static boolean isTriviallyTrue(String part) {
+		for (String operand : part.replaceAll("[\\s()]", "").split("&&", -1)) {
+			if (!operand.equals("true")) {
+				return false;
 			}
-			
-			// Fill in $super
-			Class<?> superCls = cls.getSuperclass();
-			String superInv = "true";
-			if (superCls != null) {
-				superInv = ContractInterpreter.mergeContracts((getInvariant(superCls)));
+		}
+		return true;
+	}
+	
+	/**
+	 * Retrieve the compiled form of a contract
+	 * (Each distinct contract is compiled only once per kind of engine; identical contracts in different classes share the same instance.)
+	 * @param contract	the contract
+	 * @param engine	scripting engine used to compile the contract; it must implement Compilable
+	 * @return
+	 * @throws ScriptException if the contract could not be compiled
+	 */
+	public CompiledScript getCompiledContract(String contract, final ScriptEngine engine) throws ScriptException {
+		ConcurrentHashMap<String, CompiledScript> store = compiledStore.get(engine.getClass());
+		CompiledScript compiled = store.get(contract);
+		if (compiled != null) {
+			return compiled;
+		}
+		
+		// Cache miss; other threads needing the same contract wait for it to be compiled
+		try {
+			return store.computeIfAbsent(contract, new Function<String, CompiledScript>() {
+				public CompiledScript apply(String c) {
+					try {
+						return ((Compilable)engine).compile(c);
+					} catch (ScriptException e) {
+						throw new CompileFailure(e);
+					}
+				}
+			});
+		} catch (CompileFailure e) {
+			throw (ScriptException)e.getCause();
+		}
+	}
+	
+	/*
+	 * Carries a ScriptException out of computeIfAbsent
+	 */
+	private static class CompileFailure extends RuntimeException {
+		CompileFailure(ScriptException cause) {
+			super(cause);
+		}
+	}
+	
+	/**
+	 * Retrieve a series of contracts, combined into one expression that produces the index of the first failing contract (or -1)
+	 * (The expression is created once per distinct series of contracts, and always returns the same String instance,
+	 * so it can be compiled and looked up cheaply.)
+	 * @param contracts
+	 * @return
+	 */
+	public String getContractUnit(String[] contracts) {
+		List<String> key = Arrays.asList(contracts);
+		String unit = unitStore.get(key);
+		
+		// Cache miss; the key is copied, as the caller might still modify its array
+		if (unit == null) {
+			unit = ContractInterpreter.createContractUnit(contracts);
+			String existing = unitStore.putIfAbsent(Arrays.asList(contracts.clone()), unit);
+			if (existing != null) {
+				unit = existing;
 			}
-			
-			int i=0;
-			for (String contract : inv) {
-				inv[i]=contract.replace(superKeyword, "(" + superInv + ")");
+		}
+		return unit;
+	}
+	
+	/**
+	 * Retrieve a postcondition in which the calls to the $old() function are replaced by variables
+	 * (This is done only once per distinct postcondition. Each postcondition gets its own variable names,
+	 * such that different postconditions can be bound in the same interpreter.)
+	 * @param contract	one part of a postcondition
+	 * @return
+	 * @throws ScriptException if the brackets of an $old() call don't match
+	 */
+	public OldContract getOldContract(String contract) throws ScriptException {
+		OldContract old = oldStore.get(contract);
+		
+		// Cache miss; if several threads parse the same postcondition at once, we just keep the first one
+		if (old == null) {
+			old = ContractInterpreter.parseOldFunction(contract, oldCounter.incrementAndGet());
+			OldContract existing = oldStore.putIfAbsent(contract, old);
+			if (existing != null) {
+				old = existing;
+			}
+		}
+		return old;
+	}
+	
+	/**
+	 * Retrieve the names of the variables that a contract reads
+	 * (i.e. each distinct identifier that isn't a member access, a function call or part of a string literal, such as $this, $result or a parameter name)
+	 * @param contract	one part of a contract
+	 * @return
+	 */
+	public String[] getVariables(String contract) {
+		String[] variables = variableStore.get(contract);
+		if (variables == null) {
+			variables = findVariables(contract);
+			variableStore.putIfAbsent(contract, variables);
+		}
+		return variables;
+	}
+	
+	/*
+	 * Scan a contract for the variables it reads (see getVariables)
+	 */
+	private static String[] findVariables(String contract) {
+		ArrayList<String> variables = new ArrayList<String>();
+		int n = contract.length();
+		int i = 0;
+		char quote = 0;
+		while (i < n) {
+			char c = contract.charAt(i);
+			if (quote != 0) {
+				// Inside a string literal
+				if (c == '\\') {
+					i++;
+				} else if (c == quote) {
+					quote = 0;
+				}
+				i++;
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+				i++;
+			} else if (Character.isDigit(c)) {
+				// Skip numbers (including e.g. 1.5e3 or 0x1F)
+				while (i < n && (Character.isLetterOrDigit(contract.charAt(i)) || contract.charAt(i) == '.')) {
+					i++;
+				}
+			} else if (Character.isJavaIdentifierStart(c)) {
+				int start = i;
+				while (i < n && Character.isJavaIdentifierPart(contract.charAt(i))) {
+					i++;
+				}
+				
+				// Skip member accesses and function calls (e.g. $old(..))
+				int prev = start - 1;
+				while (prev >= 0 && Character.isWhitespace(contract.charAt(prev))) {
+					prev--;
+				}
+				int next = i;
+				while (next < n && Character.isWhitespace(contract.charAt(next))) {
+					next++;
+				}
+				String name = contract.substring(start, i);
+				boolean member = prev >= 0 && contract.charAt(prev) == '.';
+				boolean call = next < n && contract.charAt(next) == '(';
+				if (!member && !call && !variables.contains(name)) {
+					variables.add(name);
+				}
+			} else {
 				i++;
 			}
-			invStore.put(key, inv);
 		}
+		return variables.toArray(new String[variables.size()]);
+	}
+	
+	/**
+	 * Retrieve the contracts needed to check behavioural subtyping for a method call
+	 * @param dynType	dynamic type of the receiver
+	 * @param m			the method being called (only its name and parameter types matter)
+	 * @return
+	 */
+	public SubtypingPlan getSubtypingPlan(Class<?> dynType, Method m) {
+		ConcurrentHashMap<Method, SubtypingPlan> plans = planStore.get(dynType);
+		SubtypingPlan plan = plans.get(m);
 		
-		return inv;
+		// Cache miss; the plan is immutable, so if several threads create it at once, we just keep the first one
+		if (plan == null) {
+			plan = createSubtypingPlan(dynType, m.getName(), m.getParameterTypes());
+			SubtypingPlan existing = plans.putIfAbsent(m, plan);
+			if (existing != null) {
+				plan = existing;
+			}
+		}
+		return plan;
+	}
+	
+	/**
+	 * Retrieve the contracts needed to check behavioural subtyping for a constructor call
+	 * (Only invariants are involved; the plan contains the dynamic type and all of its ancestors.)
+	 * @param dynType	type of the object being constructed
+	 * @return
+	 */
+	public SubtypingPlan getConstructorPlan(Class<?> dynType) {
+		return constructorPlanStore.get(dynType);
+	}
+	
+	/*
+	 * Walk up the type hierarchy of a dynamic type, and collect the contracts of the given method at each level
+	 * @param dynType	the dynamic type
+	 * @param name		name of the method
+	 * @param types		parameter types of the method
+	 * @return
+	 */
+	private SubtypingPlan createSubtypingPlan(Class<?> dynType, String name, Class<?>[] types) {
+		ArrayList<SubtypingPlan.Level> levels = new ArrayList<SubtypingPlan.Level>();
+		Class<?> current = dynType;
+		String blame = dynType.getCanonicalName();
+		
+		while (current != null) {
+			Method mBody;
+			try {
+				// Note that getMethod basically does a lookup procedure! (unlike getDeclaredMethod)
+				mBody = current.getMethod(name, types);
+			} catch (NoSuchMethodException e) {
+				break;
+			} catch (SecurityException e) {
+				e.printStackTrace();
+				break;
+			}
+			
+			levels.add(new SubtypingPlan.Level(getPre(mBody), getPost(mBody), getInvariant(current),
+					current.getCanonicalName(), blame, current.getCanonicalName() + "." + mBody.toString()));
+			
+			if (mBody.getDeclaringClass() == Object.class) {
+				break;
+			}
+			blame = current.getCanonicalName();
+			current = current.getSuperclass();
+		}
+		return new SubtypingPlan(levels.toArray(new SubtypingPlan.Level[levels.size()]));
+	}
+	
+	/*
+	 * Collect the invariants of a type and all of its ancestors
+	 * @param dynType	the dynamic type
+	 * @return
+	 */
+	private SubtypingPlan createConstructorPlan(Class<?> dynType) {
+		ArrayList<SubtypingPlan.Level> levels = new ArrayList<SubtypingPlan.Level>();
+		String blame = dynType.getCanonicalName();
+		for (Class<?> current = dynType; current != null; current = current.getSuperclass()) {
+			levels.add(new SubtypingPlan.Level(null, null, getInvariant(current), current.getCanonicalName(), blame, null));
+			blame = current.getCanonicalName();
+		}
+		return new SubtypingPlan(levels.toArray(new SubtypingPlan.Level[levels.size()]));
 	}
 	
 	/*
@@ -211,4 +654,33 @@ public class ContractStore {
 		}
 		return null;
 	}
+
+	/*
+	 * Placeholder for the contract of a method, constructor or class
+	 * (Several threads may ask for the same contract; it is resolved at most once.)
+	 */
+	private class LazyContract {
+		private AnnotatedElement body;
+		private Class<? extends Annotation> kind;
+		private volatile String[] contract;
+		
+		public LazyContract(AnnotatedElement body, Class<? extends Annotation> kind) {
+			this.body = body;
+			this.kind = kind;
+		}
+		
+		public String[] get() {
+			String[] result = contract;
+			if (result == null) {
+				synchronized (this) {
+					result = contract;
+					if (result == null) {
+						result = resolveContract(body, kind);
+						contract = result;
+					}
+				}
+			}
+			return result;
+		}
+	}
 }
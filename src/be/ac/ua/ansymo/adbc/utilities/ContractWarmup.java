@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import be.ac.ua.ansymo.adbc.annotations.ensures;
+import be.ac.ua.ansymo.adbc.annotations.requires;
+
+/**
+ * Resolves and compiles the contracts of a set of classes and aspects in advance, in parallel
+ * 
+ * Normally, the contracts of a method are resolved and compiled when it's first called.
+ * Calling warmUp() at startup, before the application starts handling requests, avoids that delay.
+ * This covers the invariants of each class, and the contracts of each annotated method, constructor and advice,
+ * as well as the behavioural subtyping checks of each annotated method.
+ * The contracts listed in the contract indexes generated by the ContractProcessor can be warmed up via warmUpIndexes().
+ * @author Tim Molderez
+ */
+public class ContractWarmup {
+	private static int BATCH_SIZE = 4;	// Number of classes handled by one task
+
+	/*
+	 * Private constructor (only static methods)
+	 */
+	private ContractWarmup() {}
+
+	/**
+	 * Warm up all contracts listed in the contract indexes on the classpath (see ContractStore.INDEX)
+	 * @return a summary of what has been warmed up
+	 */
+	public static Report warmUpIndexes() {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		return warmUpIndexes(loader != null ? loader : ContractWarmup.class.getClassLoader());
+	}
+
+	/**
+	 * Warm up all contracts listed in the contract indexes that a class loader can find (see ContractStore.INDEX)
+	 * (Entries that can't be loaded, resolved or compiled are counted as failures.)
+	 * @param loader	class loader used to find the indexes and the classes they refer to
+	 * @return a summary of what has been warmed up
+	 */
+	public static Report warmUpIndexes(ClassLoader loader) {
+		long start = System.nanoTime();
+		Report report = new Report();
+		ContractStore.getInstance().preload(loader, report);
+		report.millis = (System.nanoTime() - start) / 1000000;
+		return report;
+	}
+
+	/**
+	 * Warm up the contracts of a number of classes and/or packages (including their subpackages)
+	 * @param names		fully qualified names of classes or packages, e.g. "com.example.Account" or "com.example"
+	 * @return a summary of what has been warmed up
+	 */
+	public static Report warmUp(String... names) {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		return warmUp(loader != null ? loader : ContractWarmup.class.getClassLoader(), names);
+	}
+
+	/**
+	 * Warm up the contracts of a number of classes and/or packages (including their subpackages)
+	 * @param loader	class loader used to find the classes
+	 * @param names		fully qualified names of classes or packages, e.g. "com.example.Account" or "com.example"
+	 * @return a summary of what has been warmed up
+	 */
+	public static Report warmUp(ClassLoader loader, String... names) {
+		long start = System.nanoTime();
+		Report report = new Report();
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+		for (String name : names) {
+			try {
+				classes.add(Class.forName(name, false, loader));
+			} catch (ClassNotFoundException e) {
+				report.failures.addAndGet(findClasses(name, loader, classes));
+			} catch (LinkageError e) {
+				report.failures.incrementAndGet();
+			}
+		}
+		return warmUp(classes, report, start);
+	}
+
+	/**
+	 * Warm up the contracts of a number of classes
+	 * @param classes
+	 * @return a summary of what has been warmed up
+	 */
+	public static Report warmUp(Collection<Class<?>> classes) {
+		return warmUp(new ArrayList<Class<?>>(classes), new Report(), System.nanoTime());
+	}
+
+	/*
+	 * Warm up all given classes using a fork/join pool, and complete the report
+	 */
+	private static Report warmUp(List<Class<?>> classes, Report report, long start) {
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			pool.invoke(new WarmupTask(classes, 0, classes.size(), report));
+		} finally {
+			pool.shutdown();
+		}
+		report.millis = (System.nanoTime() - start) / 1000000;
+		return report;
+	}
+
+	/*
+	 * Resolve and compile the contracts of one class
+	 * @param cls
+	 * @param ceval		interpreter used to compile the contracts
+	 * @param report	the counters in this report are updated
+	 */
+	private static void warmUp(Class<?> cls, ContractInterpreter ceval, Report report) {
+		ContractStore store = ContractStore.getInstance();
+		report.classes.incrementAndGet();
+		boolean isAspect = cls.isAnnotationPresent(org.aspectj.lang.annotation.Aspect.class);
+
+		try {
+			store.preload(cls, ceval);
+			report.contracts.incrementAndGet();
+
+			List<AccessibleObject> bodies = new ArrayList<AccessibleObject>();
+			bodies.addAll(Arrays.asList(cls.getDeclaredConstructors()));
+			bodies.addAll(Arrays.asList(cls.getDeclaredMethods()));
+
+			for (AccessibleObject body : bodies) {
+				if (!body.isAnnotationPresent(requires.class) && !body.isAnnotationPresent(ensures.class)) {
+					continue;
+				}
+				try {
+					store.preload(body, ceval);
+					report.contracts.incrementAndGet();
+
+					// Advice and static methods don't take part in behavioural subtyping
+					if (!isAspect && body instanceof Method && !Modifier.isStatic(((Method)body).getModifiers())
+							&& !cls.isInterface() && !Modifier.isAbstract(cls.getModifiers())) {
+						store.getSubtypingPlan(cls, (Method)body);
+					}
+				} catch (Exception e) {
+					report.failures.incrementAndGet();
+				}
+			}
+		} catch (Exception e) {
+			report.failures.incrementAndGet();
+		} catch (LinkageError e) {
+			report.failures.incrementAndGet();
+		}
+	}
+
+	/*
+	 * Find all classes in a package and its subpackages, in directories and jar files
+	 * @param pkg		package name
+	 * @param loader	class loader used to find the package
+	 * @param classes	the classes found are added to this list
+	 * @return number of classes that could not be loaded
+	 */
+	private static int findClasses(String pkg, ClassLoader loader, List<Class<?>> classes) {
+		String path = pkg.replace('.', '/');
+		List<String> names = new ArrayList<String>();
+		try {
+			Enumeration<URL> urls = loader.getResources(path);
+			while (urls.hasMoreElements()) {
+				URL url = urls.nextElement();
+				if (url.getProtocol().equals("file")) {
+					findClasses(new File(url.toURI()), pkg, names);
+				} else if (url.getProtocol().equals("jar")) {
+					JarFile jar = ((JarURLConnection)url.openConnection()).getJarFile();
+					Enumeration<JarEntry> entries = jar.entries();
+					while (entries.hasMoreElements()) {
+						String entry = entries.nextElement().getName();
+						if (entry.startsWith(path + "/") && entry.endsWith(".class")) {
+							names.add(entry.substring(0, entry.length() - 6).replace('/', '.'));
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (URISyntaxException e) {
+			e.printStackTrace();
+		}
+
+		int failures = 0;
+		for (String name : names) {
+			if (name.endsWith("package-info") || name.endsWith("module-info")) {
+				continue;
+			}
+			try {
+				classes.add(Class.forName(name, false, loader));
+			} catch (ClassNotFoundException e) {
+				failures++;
+			} catch (LinkageError e) {
+				failures++;
+			}
+		}
+		return failures;
+	}
+
+	/*
+	 * Collect the names of all class files in a directory (recursively)
+	 */
+	private static void findClasses(File dir, String pkg, List<String> names) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isDirectory()) {
+				findClasses(file, pkg + "." + name, names);
+			} else if (name.endsWith(".class")) {
+				names.add(pkg + "." + name.substring(0, name.length() - 6));
+			}
+		}
+	}
+
+	/**
+	 * Summary of a warm-up
+	 */
+	public static class Report {
+		public AtomicInteger classes = new AtomicInteger();		// Number of classes/aspects that were inspected
+		public AtomicInteger contracts = new AtomicInteger();	// Number of classes, methods, constructors and advice whose contracts were warmed up
+		public AtomicInteger failures = new AtomicInteger();	// Number of classes or contracts that could not be loaded, resolved or compiled
+		public long millis;										// Duration of the warm-up, in milliseconds
+
+		@Override
+		public String toString() {
+			return "Warmed up " + contracts + " contracts in " + classes + " classes in " + millis + "ms"
+					+ (failures.get() == 0 ? "" : " (" + failures + " failed)");
+		}
+	}
+
+	/*
+	 * Warms up a range of classes; large ranges are split into subtasks that run in parallel
+	 */
+	private static class WarmupTask extends RecursiveAction {
+		private List<Class<?>> classes;
+		private int from;
+		private int to;
+		private Report report;
+
+		public WarmupTask(List<Class<?>> classes, int from, int to, Report report) {
+			this.classes = classes;
+			this.from = from;
+			this.to = to;
+			this.report = report;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > BATCH_SIZE) {
+				int middle = (from + to) / 2;
+				invokeAll(new WarmupTask(classes, from, middle, report), new WarmupTask(classes, middle, to, report));
+				return;
+			}
+
+			ContractInterpreter ceval = ContractInterpreter.acquire();
+			try {
+				for (int i = from; i < to; i++) {
+					warmUp(classes.get(i), ceval, report);
+				}
+			} finally {
+				ceval.release();
+			}
+		}
+	}
+}
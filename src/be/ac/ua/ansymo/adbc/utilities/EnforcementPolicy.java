@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.Signature;
+
+import be.ac.ua.ansymo.adbc.EnforcementLevel;
+
+/**
+ * Determines the enforcement level of each method, constructor and advice
+ * 
+ * Levels are assigned to a package, class or method by its fully qualified name, e.g.:
+ * 	adbc.level=full
+ * 	adbc.level.com.example=pre
+ * 	adbc.level.com.example.Account=post
+ * 	adbc.level.com.example.Account.deposit=off
+ * The most specific entry wins; "adbc.level" is the default (full, if not given).
+ * (Constructors are named "<init>"; advice are named after the aspect.)
+ * 
+ * These entries are read from an adbc.properties file on the classpath, and from the system properties,
+ * which take precedence. They can be changed at runtime via setLevel().
+ * 
+ * The level of each method is only resolved once (again after any change), but looking up that decision still costs
+ * a hash lookup and a volatile read per invocation. The JIT can't constant-fold it, as the contract enforcement advice
+ * is shared by all join points. To avoid any cost at all, don't weave adbc into that code.
+ * @author Tim Molderez
+ */
+public class EnforcementPolicy {
+	private static String prefix = "adbc.level";
+
+	private static ConcurrentHashMap<String, EnforcementLevel> levels = new ConcurrentHashMap<String, EnforcementLevel>();
+
+	/* Levels are resolved only once per method/advice. All cached decisions are discarded at once
+	 * by incrementing the version, which happens whenever the configured levels change. */
+	private static ConcurrentHashMap<JoinPoint.StaticPart, Decision> decisions = new ConcurrentHashMap<JoinPoint.StaticPart, Decision>();
+	private static AtomicInteger version = new AtomicInteger();
+
+	static {
+		load();
+	}
+
+	/*
+	 * Private constructor (only static methods)
+	 */
+	private EnforcementPolicy() {}
+
+	/**
+	 * Retrieve the enforcement level of a method, constructor or advice
+	 * @param sp	static part of its execution join point (thisJoinPointStaticPart)
+	 * @return
+	 */
+	public static EnforcementLevel getLevel(JoinPoint.StaticPart sp) {
+		Decision d = decisions.get(sp);
+		int current = version.get();
+		if (d != null && d.version == current) {
+			return d.level;
+		}
+
+		// The version is read first; if the levels change while resolving, this decision is discarded next time
+		Signature sig = sp.getSignature();
+		d = new Decision(resolve(sig.getDeclaringTypeName() + "." + sig.getName()), current);
+		decisions.put(sp, d);
+		return d.level;
+	}
+
+	/**
+	 * Set the enforcement level of a package, class or method
+	 * @param name	fully qualified name of the package, class or method (or "" to set the default level)
+	 * @param level	enforcement level (or null to remove the entry)
+	 */
+	public static void setLevel(String name, EnforcementLevel level) {
+		String key = name.length() == 0 ? prefix : prefix + "." + name;
+		if (level == null) {
+			levels.remove(key);
+		} else {
+			levels.put(key, level);
+		}
+		invalidate();
+	}
+
+	/**
+	 * Discard all enforcement levels and read them again from adbc.properties and the system properties
+	 * (Any invalid entries are reported on System.err and skipped.)
+	 */
+	public static void reload() {
+		levels.clear();
+		load();
+		invalidate();
+	}
+
+	/*
+	 * Find the most specific enforcement level that applies to the given name
+	 * @param name	fully qualified name of a method
+	 * @return
+	 */
+	private static EnforcementLevel resolve(String name) {
+		String key = prefix + "." + name;
+		while (true) {
+			EnforcementLevel level = levels.get(key);
+			if (level != null) {
+				return level;
+			}
+
+			int lastDot = key.lastIndexOf('.');
+			if (lastDot < prefix.length()) {
+				return EnforcementLevel.FULL;
+			}
+			key = key.substring(0, lastDot);
+		}
+	}
+
+	/*
+	 * Read the enforcement levels from adbc.properties (if present) and the system properties
+	 */
+	private static void load() {
+		Properties file = new Properties();
+		InputStream in = EnforcementPolicy.class.getClassLoader().getResourceAsStream("adbc.properties");
+		if (in != null) {
+			try {
+				file.load(in);
+				in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		addLevels(file);
+		addLevels(System.getProperties());
+	}
+
+	/*
+	 * Add all enforcement level entries in a set of properties
+	 * (Invalid entries are reported and skipped; as this runs in the static initializer,
+	 * throwing would break every advised call instead.)
+	 * @param props
+	 */
+	private static void addLevels(Properties props) {
+		for (Map.Entry<Object, Object> entry : props.entrySet()) {
+			String key = entry.getKey().toString().trim();
+			if (key.equals(prefix) || key.startsWith(prefix + ".")) {
+				String value = entry.getValue().toString().trim();
+				try {
+					levels.put(key, EnforcementLevel.valueOf(value.toUpperCase()));
+				} catch (IllegalArgumentException e) {
+					System.err.println("adbc: ignoring invalid enforcement level for " + key + ": " + value);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Discard all cached decisions
+	 */
+	private static void invalidate() {
+		version.incrementAndGet();
+	}
+
+	/*
+	 * Enforcement level of one method/advice, valid as long as the version doesn't change
+	 */
+	private static class Decision {
+		public Decision(EnforcementLevel level, int version) {
+			this.level = level;
+			this.version = version;
+		}
+
+		public EnforcementLevel level;
+		public int version;
+	}
+}
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.utilities;
+
+/**
+ * A postcondition in which each call to the $old() function has been replaced by a variable
+ * 
+ * This is created once per postcondition by the ContractStore, and never modified afterwards.
+ * Before evaluating the rewritten postcondition, each of the expressions should be evaluated in the pre-state,
+ * and their results should be bound to the corresponding variables.
+ * @author Tim Molderez
+ */
+public class OldContract {
+	/**
+	 * Constructor
+	 * @param contract		the rewritten postcondition
+	 * @param expressions	the arguments of the $old() calls, in order of appearance
+	 * @param variables		the variables that replace the $old() calls
+	 */
+	public OldContract(String contract, String[] expressions, String[] variables) {
+		this.contract = contract;
+		this.expressions = expressions;
+		this.variables = variables;
+	}
+
+	public String contract;			// The rewritten postcondition
+	public String[] expressions;	// Arguments of the $old() calls (empty if there are none)
+	public String[] variables;		// Variable names that replace each $old() call (unique across all postconditions)
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.utilities;
+
+/**
+ * The contracts that are involved in checking behavioural subtyping, for a certain method in a certain dynamic type
+ * (or for the constructors of a certain dynamic type)
+ * 
+ * A plan is created once by the ContractStore, and never modified afterwards (apart from the cached result of ContractStore.isTrivial).
+ * @author Tim Molderez
+ */
+public class SubtypingPlan {
+	/**
+	 * The dynamic type and all of its ancestors that have the method, starting with the dynamic type itself.
+	 * (The ancestors stop at the first one that doesn't have the method, or once the method is declared by Object.)
+	 */
+	public Level[] levels;
+
+	/**
+	 * True if all contracts in this plan are trivial (see ContractStore.isTrivial), so they don't need to be checked
+	 */
+	public boolean trivial;
+
+	/**
+	 * Cached result of ContractStore.isTrivial for the last static type it was called with (null if not known yet)
+	 * (In practice, a method in a dynamic type is nearly always called via the same static type.)
+	 */
+	public volatile CallCheck callCheck;
+
+	/**
+	 * Constructor
+	 * @param levels	ordered list of levels, starting with the dynamic type
+	 */
+	public SubtypingPlan(Level[] levels) {
+		this.levels = levels;
+		
+		trivial = true;
+		for (Level level : levels) {
+			if ((level.pre != null && !ContractStore.isTrivial(level.pre))
+					|| (level.post != null && !ContractStore.isTrivial(level.post))
+					|| !ContractStore.isTrivial(level.inv)) {
+				trivial = false;
+			}
+		}
+	}
+
+	/**
+	 * Whether a call via a certain static type only involves trivial contracts
+	 */
+	public static class CallCheck {
+		/**
+		 * Constructor
+		 * @param staticType	static type of the receiver
+		 * @param trivial		true if the plan, and the contracts of the method and invariants of the static type are all trivial
+		 */
+		public CallCheck(Class<?> staticType, boolean trivial) {
+			this.staticType = staticType;
+			this.trivial = trivial;
+		}
+
+		public Class<?> staticType;
+		public boolean trivial;
+	}
+
+	/**
+	 * One type in the hierarchy of a plan
+	 */
+	public static class Level {
+		/**
+		 * Constructor
+		 * @param pre		preconditions of the method in this type
+		 * @param post		postconditions of the method in this type
+		 * @param inv		invariants of this type
+		 * @param typeName	name of this type
+		 * @param blame		name of the type that is blamed if this type's invariants are broken
+		 * @param where		signature of the method body in this type
+		 */
+		public Level(String[] pre, String[] post, String[] inv, String typeName, String blame, String where) {
+			this.pre = pre;
+			this.post = post;
+			this.inv = inv;
+			this.typeName = typeName;
+			this.blame = blame;
+			this.where = where;
+		}
+
+		public String[] pre;		// Preconditions (null in case of constructors)
+		public String[] post;		// Postconditions (null in case of constructors)
+		public String[] inv;		// Invariants
+
+		public String typeName;		// Canonical name of this type
+		public String blame;		// Canonical name of the subtype below this level (or of this type itself, if there is none)
+		public String where;		// Signature of the method body (null in case of constructors)
+	}
+}
@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.utilities;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import be.ac.ua.ansymo.adbc.AdbcConfig;
+import be.ac.ua.ansymo.adbc.exceptions.ContractEnforcementException;
+import be.ac.ua.ansymo.adbc.exceptions.InvariantException;
+import be.ac.ua.ansymo.adbc.exceptions.PostConditionException;
+import be.ac.ua.ansymo.adbc.exceptions.PreConditionException;
+import be.ac.ua.ansymo.adbc.exceptions.SubstitutionException;
+
+/**
+ * Records contract violations if AdbcConfig.reportMode is enabled, instead of throwing exceptions
+ * 
+ * Each violation is stored as a compact record in a preallocated ring buffer, which can be drained by a consumer.
+ * All strings in a record (contracts, signatures, ..) are replaced by ids; use getName() to look them up.
+ * Signatures are stored as they were passed to record(), and only formatted (via toString()) when the record is drained.
+ * If the consumer doesn't keep up, the oldest records are overwritten. Recording a violation never blocks.
+ * 
+ * The number of violations of each contract is counted as well, regardless of whether the records are drained.
+ * @author Tim Molderez
+ */
+public class ViolationLog {
+
+	/**
+	 * The kinds of contract violations
+	 */
+	public enum Kind {
+		PRECONDITION, POSTCONDITION, INVARIANT, SUBSTITUTION;
+
+		/**
+		 * Create the exception that corresponds to this kind of violation
+		 * @param contract	which contract is broken
+		 * @param where		to which body does this contract belong
+		 * @param blame		which body is to blame
+		 * @param reason	further explanation (only used by invariant and substitution violations)
+		 * @return
+		 */
+		public ContractEnforcementException createException(String contract, String where, String blame, String reason) {
+			switch (this) {
+			case PRECONDITION:
+				return new PreConditionException(contract, where, blame);
+			case POSTCONDITION:
+				return new PostConditionException(contract, where, blame);
+			case INVARIANT:
+				return new InvariantException(contract, where, blame, reason);
+			default:
+				return new SubstitutionException(contract, where, blame, reason);
+			}
+		}
+	}
+
+	/**
+	 * A recorded contract violation
+	 * (The consumer of drain() receives the same instance for each record, so it should not hold on to it.)
+	 */
+	public static class Record {
+		public Kind kind;
+		public int contract;		// Id of the broken contract
+		public int where;			// Id of the signature of the body the contract belongs to
+		public int blame;			// Id of the signature of the body that is to blame
+		public int reason;			// Id of the further explanation (or -1 if there is none)
+		public long thread;			// Id of the thread in which the violation occurred
+		public long timestamp;		// Time at which the violation occurred, in milliseconds
+
+		/**
+		 * Create the exception that would have been thrown for this violation
+		 * @return
+		 */
+		public ContractEnforcementException toException() {
+			return kind.createException(getName(contract), getName(where), getName(blame), reason == -1 ? null : getName(reason));
+		}
+	}
+
+	/**
+	 * Receives the records drained from the log
+	 */
+	public interface Consumer {
+		/**
+		 * Called for each record, in the order they were recorded
+		 * @param r
+		 */
+		public void violation(Record r);
+	}
+
+	/* Ring buffer: each slot consists of WORDS longs in data, PARTS objects in parts, and a sequence number in seqs.
+	 * A producer claims a sequence number s, marks its slot as busy (-1), writes the data and finally publishes s.
+	 * The consumer only accepts a slot if its sequence number is the expected one, both before and after reading. */
+	private static int WORDS = 4;
+	private static int PARTS = 2;
+	private static int capacity = capacity(AdbcConfig.reportBufferSize);
+	private static int mask = capacity - 1;
+	private static AtomicLongArray data = new AtomicLongArray(capacity * WORDS);
+	private static AtomicReferenceArray<Object> parts = new AtomicReferenceArray<Object>(capacity * PARTS);
+	private static AtomicLongArray seqs = initSeqs();
+	private static AtomicLong head = new AtomicLong();	// Next sequence number to be claimed by a producer
+	private static long tail = 0;						// Next sequence number to be read by the consumer
+	private static AtomicLong lost = new AtomicLong();
+
+	/* Interned strings (each has an id and a violation counter)
+	 * symbolsById is append-only: its capacity doubles when it's full, and symbolCount publishes each new symbol. */
+	private static ConcurrentHashMap<String, Symbol> symbols = new ConcurrentHashMap<String, Symbol>();
+	private static volatile Symbol[] symbolsById = new Symbol[16];
+	private static volatile int symbolCount = 0;
+
+	/*
+	 * Private constructor (only static methods)
+	 */
+	private ViolationLog() {}
+
+	/**
+	 * Record a contract violation
+	 * @param kind		kind of violation
+	 * @param contract	which contract is broken
+	 * @param where		to which body does this contract belong (formatted by its toString(), once drained)
+	 * @param blame		which body is to blame (formatted by its toString(), once drained)
+	 * @param reason	further explanation (may be null)
+	 */
+	public static void record(Kind kind, String contract, Object where, Object blame, String reason) {
+		Symbol c = intern(contract);
+		c.violations.incrementAndGet();
+		int r = reason == null ? -1 : intern(reason).id;
+
+		long s = head.getAndIncrement();
+		int slot = (int)(s & mask);
+		int i = slot * WORDS;
+		seqs.set(slot, -1);
+		data.set(i, kind.ordinal());
+		data.set(i + 1, ((long)c.id << 32) | (r & 0xFFFFFFFFL));
+		data.set(i + 2, Thread.currentThread().getId());
+		data.set(i + 3, System.currentTimeMillis());
+		parts.set(slot * PARTS, where);
+		parts.set(slot * PARTS + 1, blame);
+		seqs.set(slot, s);
+	}
+
+	/**
+	 * Pass all records that haven't been drained yet to a consumer
+	 * (Records that are still being written are left for the next call.)
+	 * @param consumer
+	 * @return number of records passed to the consumer
+	 */
+	public static synchronized int drain(Consumer consumer) {
+		Record r = new Record();
+		Kind[] kinds = Kind.values();
+		int count = 0;
+
+		while (tail < head.get()) {
+			// Skip any records that have already been overwritten
+			long oldest = head.get() - capacity;
+			if (tail < oldest) {
+				lost.addAndGet(oldest - tail);
+				tail = oldest;
+			}
+
+			int slot = (int)(tail & mask);
+			int i = slot * WORDS;
+			long s = seqs.get(slot);
+			if (s < tail) {
+				break;	// Not published yet
+			}
+
+			long w0 = data.get(i);
+			long w1 = data.get(i + 1);
+			r.thread = data.get(i + 2);
+			r.timestamp = data.get(i + 3);
+			Object where = parts.get(slot * PARTS);
+			Object blame = parts.get(slot * PARTS + 1);
+
+			if (s > tail || seqs.get(slot) != s) {
+				continue;	// Overwritten in the meantime; the next iteration skips ahead
+			}
+
+			r.kind = kinds[(int)w0];
+			r.contract = (int)(w1 >>> 32);
+			r.reason = (int)w1;
+			r.where = intern(String.valueOf(where)).id;
+			r.blame = intern(String.valueOf(blame)).id;
+			tail++;
+			count++;
+			consumer.violation(r);
+		}
+		return count;
+	}
+
+	/**
+	 * Retrieve the string that corresponds to an id in a record
+	 * @param id
+	 * @return
+	 */
+	public static String getName(int id) {
+		return symbolsById[id].name;
+	}
+
+	/**
+	 * Retrieve the number of times a contract has been broken so far (in report mode)
+	 * @param contract
+	 * @return
+	 */
+	public static long getViolationCount(String contract) {
+		Symbol s = symbols.get(contract);
+		return s == null ? 0 : s.violations.get();
+	}
+
+	/**
+	 * Retrieve the number of times each broken contract has been broken so far (in report mode)
+	 * @return a snapshot of all counters, per contract
+	 */
+	public static Map<String, Long> getViolationCounts() {
+		Map<String, Long> counts = new HashMap<String, Long>();
+		int count = symbolCount;
+		Symbol[] byId = symbolsById;
+		for (int i = 0; i < count; i++) {
+			Symbol s = byId[i];
+			long n = s.violations.get();
+			if (n > 0) {
+				counts.put(s.name, n);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Retrieve the number of records that were overwritten before they could be drained
+	 * @return
+	 */
+	public static long getLostCount() {
+		return lost.get();
+	}
+
+	/*
+	 * Retrieve the symbol of a string, and create it if needed
+	 * @param name
+	 * @return
+	 */
+	private static Symbol intern(String name) {
+		Symbol s = symbols.get(name);
+		if (s != null) {
+			return s;
+		}
+
+		synchronized (symbols) {
+			s = symbols.get(name);
+			if (s == null) {
+				int id = symbolCount;
+				Symbol[] byId = symbolsById;
+				if (id == byId.length) {
+					byId = Arrays.copyOf(byId, id * 2);
+				}
+				s = new Symbol(id, name);
+				byId[id] = s;
+				symbolsById = byId;
+				symbolCount = id + 1;
+				symbols.put(name, s);
+			}
+			return s;
+		}
+	}
+
+	/*
+	 * Round the size of the ring buffer up to a power of two
+	 * @param size
+	 * @return
+	 */
+	private static int capacity(int size) {
+		int c = 1;
+		while (c < size && c < (1 << 24)) {
+			c <<= 1;
+		}
+		return c;
+	}
+
+	/*
+	 * Mark all slots as empty
+	 * @return
+	 */
+	private static AtomicLongArray initSeqs() {
+		AtomicLongArray s = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			s.set(i, -1);
+		}
+		return s;
+	}
+
+	/*
+	 * An interned string
+	 */
+	private static class Symbol {
+		public Symbol(int id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		public int id;
+		public String name;
+		public AtomicLong violations = new AtomicLong();
+	}
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests adbc's contract engine, mostly by comparing its results to those of the JavaScript engine
+ * @author Tim Molderez
+ */
+public class ContractEngineTest {
+	private ContractEngineFactory factory = new ContractEngineFactory();
+	private ScriptEngine adbc;
+	private ScriptEngine js;
+	private Holder h;
+
+	/**
+	 * An object used in contracts
+	 */
+	public static class Holder {
+		public int count;
+		public int calls;
+		public String name = "h";
+		private int secret = 5;
+
+		public String getName() {
+			calls++;
+			return name;
+		}
+
+		public int next() {
+			calls++;
+			return ++count;
+		}
+
+		public String f(Object o) {
+			return "Object";
+		}
+
+		public String f(String s) {
+			return "String";
+		}
+
+		public boolean isEmpty() {
+			return count == 0;
+		}
+	}
+
+	@Before
+	public void setUp() {
+		adbc = factory.getScriptEngine();
+		js = new ScriptEngineManager().getEngineByName("JavaScript");
+		h = new Holder();
+		for (ScriptEngine e : new ScriptEngine[]{adbc, js}) {
+			e.put("x", 5);
+			e.put("d", 2.5);
+			e.put("s", "abc");
+			e.put("n", null);
+			e.put("l", new ArrayList<String>());
+		}
+	}
+
+	@Test
+	public void testSameResultsAsJavaScript() throws ScriptException {
+		String[] contracts = {
+			"x>0", "x+1==6", "x-7", "x*d", "x/2", "x%2==1", "-x<0", "d*2==5",
+			"s+x", "x+s", "s+d", "s==\"abc\"", "s!='abc'", "'5'==x", "x===5", "x!==5",
+			"s.equals('abc')", "s.charAt(1)", "s.substring(1,2)", "s.length()==3",
+			"n==null", "n===null", "null==undefined", "n!=null && n.length()>0", "n==null || n.length()>0",
+			"l.isEmpty()", "l.size()==0 && !l.isEmpty() == false", "l.empty",
+			"x>3?'big':'small'", "((x>0)?(x<10):(false))", "!(x>1 && d<1)",
+			"x<d", "x>=5", "x<=4", "s<'abd'", "true==1", "x+d*2-1"
+		};
+		for (String contract : contracts) {
+			assertEquals(contract, normalize(js.eval(contract)), normalize(adbc.eval(contract)));
+		}
+	}
+
+	@Test
+	public void testMemberAccess() throws ScriptException {
+		put("h", h);
+		assertEquals("h", adbc.eval("h.name"));
+		assertEquals(true, adbc.eval("h.empty"));
+		assertEquals(1.0, normalize(adbc.eval("h.next()")));
+		assertEquals(false, adbc.eval("h.empty"));
+	}
+
+	@Test
+	public void testOperandsEvaluatedOnce() throws ScriptException {
+		put("h", h);
+		String[] contracts = {"h.getName() + 1", "1 + h.getName()", "h.getName() == 'h'", "h.next() < h.getName()"};
+		for (String contract : contracts) {
+			// Evaluate twice: once while speculating on numbers, and once after falling back
+			for (int i = 0; i < 2; i++) {
+				h.calls = 0;
+				Object expected = js.eval(contract);
+				int jsCalls = h.calls;
+				h.calls = 0;
+				assertEquals(contract, normalize(expected), normalize(adbc.eval(contract)));
+				assertEquals(contract, jsCalls, h.calls);
+			}
+		}
+	}
+
+	@Test
+	public void testMostSpecificOverload() throws ScriptException {
+		put("h", h);
+		assertEquals("String", adbc.eval("h.f('x')"));
+		assertEquals("Object", adbc.eval("h.f(h)"));
+		assertEquals("String", adbc.eval("h.f('y')"));
+	}
+
+	@Test
+	public void testPrivateFieldsNotAccessible() throws ScriptException {
+		put("h", h);
+		assertNull(adbc.eval("h.secret"));
+	}
+
+	@Test(expected = ScriptException.class)
+	public void testUndefinedVariable() throws ScriptException {
+		adbc.eval("y>0");
+	}
+
+	@Test
+	public void testOutputStatement() throws ScriptException {
+		String text = "a \"quoted\" \\ text\nwith two lines";
+		assertEquals(text, adbc.eval(factory.getOutputStatement(text)));
+	}
+
+	/*
+	 * Bind a variable in both engines
+	 */
+	private void put(String name, Object value) {
+		adbc.put(name, value);
+		js.put(name, value);
+	}
+
+	/*
+	 * Both engines may return any kind of Number
+	 */
+	private static Object normalize(Object value) {
+		return value instanceof Number ? ((Number)value).doubleValue() : value;
+	}
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import be.ac.ua.ansymo.adbc.annotations.requires;
+import be.ac.ua.ansymo.adbc.utilities.ContractStore;
+
+/**
+ * Tests the diagnostics and the contract index produced by the ContractProcessor
+ * @author Tim Molderez
+ */
+public class ContractProcessorTest {
+	private Path output;
+
+	private static String valid = "package p; import be.ac.ua.ansymo.adbc.annotations.*;\n"
+			+ "public class Valid { @requires(\"x > 0\") @ensures(\"$result == x\") public int f(int x) { return x; } }";
+	private static String invalid = "package p; import be.ac.ua.ansymo.adbc.annotations.*;\n"
+			+ "public class Invalid { @requires(\"$result > 0\") public void f(int x) {} }";
+	private static String malformed = "package p; import be.ac.ua.ansymo.adbc.annotations.*;\n"
+			+ "public class Malformed { @requires(\"x > \") public void f(int x) {} }";
+
+	/**
+	 * Source code of a compilation unit
+	 */
+	private static class Source extends SimpleJavaFileObject {
+		private String code;
+
+		Source(String name, String code) {
+			super(URI.create("string:///p/" + name + ".java"), Kind.SOURCE);
+			this.code = code;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return code;
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		output = Files.createTempDirectory("adbc-processor");
+	}
+
+	@Test
+	public void testValidContracts() throws IOException {
+		List<Diagnostic<? extends JavaFileObject>> diagnostics = compile(false, new Source("Valid", valid));
+		assertEquals(diagnostics.toString(), 0, diagnostics.size());
+		assertTrue(readIndex().get(0).contains("p.Valid"));
+	}
+
+	@Test
+	public void testWarningsByDefault() throws IOException {
+		List<Diagnostic<? extends JavaFileObject>> diagnostics = compile(false, new Source("Invalid", invalid), new Source("Malformed", malformed));
+		assertEquals(diagnostics.toString(), 2, diagnostics.size());
+		for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+			assertEquals(Diagnostic.Kind.WARNING, d.getKind());
+		}
+		assertTrue(diagnostics.get(0).getMessage(null).contains("$result can only be used in postconditions"));
+		assertTrue(diagnostics.get(1).getMessage(null).contains("Malformed contract"));
+	}
+
+	@Test
+	public void testErrorsInStrictMode() throws IOException {
+		List<Diagnostic<? extends JavaFileObject>> diagnostics = compile(true, new Source("Invalid", invalid));
+		assertEquals(diagnostics.toString(), 1, diagnostics.size());
+		assertEquals(Diagnostic.Kind.ERROR, diagnostics.get(0).getKind());
+	}
+
+	@Test
+	public void testIncrementalIndex() throws IOException {
+		compile(false, new Source("Valid", valid));
+		compile(false, new Source("Invalid", invalid));
+
+		// The second compilation keeps the entries of the classes it didn't compile
+		boolean hasValid = false;
+		boolean hasInvalid = false;
+		for (String entry : readIndex()) {
+			hasValid |= entry.contains("p.Valid");
+			hasInvalid |= entry.contains("p.Invalid");
+		}
+		assertTrue(hasValid);
+		assertTrue(hasInvalid);
+	}
+
+	/*
+	 * Run the processor on a number of sources
+	 * @return the diagnostics reported by the processor
+	 */
+	private List<Diagnostic<? extends JavaFileObject>> compile(boolean strict, Source... sources) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<JavaFileObject>();
+		String classpath = new File(requires.class.getProtectionDomain().getCodeSource().getLocation().getPath()).getPath();
+		List<String> options = new ArrayList<String>(Arrays.asList("-proc:only", "-classpath", classpath, "-d", output.toString()));
+		if (strict) {
+			options.add("-A" + ContractProcessor.STRICT + "=true");
+		}
+
+		JavaCompiler.CompilationTask task = compiler.getTask(null, null, collector, options, null, Arrays.asList(sources));
+		task.setProcessors(Arrays.asList(new ContractProcessor()));
+		task.call();
+
+		List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<Diagnostic<? extends JavaFileObject>>();
+		for (Diagnostic<? extends JavaFileObject> d : collector.getDiagnostics()) {
+			if (d.getKind() != Diagnostic.Kind.NOTE) {
+				diagnostics.add(d);
+			}
+		}
+		return diagnostics;
+	}
+
+	/*
+	 * Read the contract index written by the processor
+	 */
+	private List<String> readIndex() throws IOException {
+		return Files.readAllLines(output.resolve(ContractStore.INDEX));
+	}
+}
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+import org.junit.Test;
+
+import be.ac.ua.ansymo.adbc.annotations.invariant;
+import be.ac.ua.ansymo.adbc.annotations.requires;
+
+/**
+ * Tests the caching of compiled contracts and contract metadata in the ContractStore
+ * @author Tim Molderez
+ */
+public class ContractStoreTest {
+	private ContractStore store = ContractStore.getInstance();
+
+	/**
+	 * An engine that counts how often it compiles something
+	 */
+	public static class CountingEngine extends AbstractScriptEngine implements Compilable {
+		public AtomicInteger compiled = new AtomicInteger();
+
+		public CompiledScript compile(String script) throws ScriptException {
+			if (script.contains("syntax error")) {
+				throw new ScriptException("Malformed contract");
+			}
+			compiled.incrementAndGet();
+			try {
+				Thread.sleep(10);	// Give other threads the chance to compile the same contract
+			} catch (InterruptedException e) {}
+
+			final ScriptEngine engine = this;
+			return new CompiledScript() {
+				public Object eval(ScriptContext context) {
+					return true;
+				}
+
+				public ScriptEngine getEngine() {
+					return engine;
+				}
+			};
+		}
+
+		public CompiledScript compile(Reader script) throws ScriptException {
+			throw new ScriptException("Not supported");
+		}
+
+		public Object eval(String script, ScriptContext context) throws ScriptException {
+			return compile(script).eval(context);
+		}
+
+		public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+			throw new ScriptException("Not supported");
+		}
+
+		public Bindings createBindings() {
+			return new SimpleBindings();
+		}
+
+		public ScriptEngineFactory getFactory() {
+			return null;
+		}
+	}
+
+	/**
+	 * Another kind of engine
+	 */
+	public static class OtherEngine extends CountingEngine {}
+
+	/**
+	 * A class whose method only has trivial contracts
+	 */
+	public static class Plain {
+		@requires("true && (true)")
+		public void run() {}
+	}
+
+	/**
+	 * A subclass that adds an invariant
+	 */
+	@invariant("$this != null")
+	public static class Checked extends Plain {}
+
+	@Test
+	public void testCompiledOnce() throws ScriptException {
+		CountingEngine engine = new CountingEngine();
+		CompiledScript first = store.getCompiledContract("testCompiledOnce > 0", engine);
+		assertSame(first, store.getCompiledContract("testCompiledOnce > 0", engine));
+		assertSame(first, store.getCompiledContract("testCompiledOnce > 0", new CountingEngine()));
+		assertEquals(1, engine.compiled.get());
+	}
+
+	@Test
+	public void testCompiledOncePerEngine() throws ScriptException {
+		CountingEngine engine = new CountingEngine();
+		OtherEngine other = new OtherEngine();
+		CompiledScript first = store.getCompiledContract("testCompiledOncePerEngine > 0", engine);
+		CompiledScript second = store.getCompiledContract("testCompiledOncePerEngine > 0", other);
+		assertNotSame(first, second);
+		assertSame(other, second.getEngine());
+
+		// Switching back to the first kind of engine doesn't compile the contract again
+		assertSame(first, store.getCompiledContract("testCompiledOncePerEngine > 0", engine));
+		assertEquals(1, engine.compiled.get());
+		assertEquals(1, other.compiled.get());
+	}
+
+	@Test
+	public void testConcurrentCompilation() throws Exception {
+		final CountingEngine engine = new CountingEngine();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CompiledScript[] results = new CompiledScript[8];
+		Thread[] threads = new Thread[results.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						results[index] = store.getCompiledContract("testConcurrentCompilation > 0", engine);
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		assertEquals(1, engine.compiled.get());
+		for (CompiledScript result : results) {
+			assertSame(results[0], result);
+		}
+	}
+
+	@Test(expected = ScriptException.class)
+	public void testCompileError() throws ScriptException {
+		store.getCompiledContract("syntax error", new CountingEngine());
+	}
+
+	@Test
+	public void testContractUnit() {
+		String unit = store.getContractUnit(new String[]{"a > 0", "b > 0"});
+		assertSame(unit, store.getContractUnit(new String[]{"a > 0", "b > 0"}));
+	}
+
+	@Test
+	public void testTrivialCalls() throws NoSuchMethodException {
+		Method run = Plain.class.getMethod("run");
+		assertTrue(store.isTrivial(Plain.class, run, Plain.class));
+		assertFalse(store.isTrivial(Checked.class, run, Plain.class));
+		assertFalse(store.isTrivial(Plain.class, run, Checked.class));
+
+		// The answer is cached in the plan, until the method is called via another static type
+		SubtypingPlan plan = store.getSubtypingPlan(Plain.class, run);
+		SubtypingPlan.CallCheck check = plan.callCheck;
+		assertSame(Checked.class, check.staticType);
+		assertFalse(store.isTrivial(Plain.class, run, Checked.class));
+		assertSame(check, plan.callCheck);
+		assertTrue(store.isTrivial(Plain.class, run, Plain.class));
+		assertSame(Plain.class, plan.callCheck.staticType);
+	}
+
+	@Test
+	public void testVariables() {
+		assertArrayEquals(new String[]{"$this", "amount"},
+				store.getVariables("$this.getAmount() == $old($this.getAmount()) + amount"));
+		assertArrayEquals(new String[]{"s"}, store.getVariables("s.equals('x.y') && s.length() > 1.5"));
+	}
+}
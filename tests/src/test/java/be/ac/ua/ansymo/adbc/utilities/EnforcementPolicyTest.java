@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.utilities;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.runtime.reflect.Factory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.ac.ua.ansymo.adbc.EnforcementLevel;
+
+/**
+ * Tests how the EnforcementPolicy resolves the enforcement levels of the properties
+ * @author Tim Molderez
+ */
+public class EnforcementPolicyTest {
+	private static String prefix = "adbc.level." + EnforcementPolicyTest.class.getName();
+
+	@Before
+	public void setUp() {
+		System.setProperty(prefix, "pre");
+		System.setProperty(prefix + ".post", "post");
+		System.setProperty(prefix + ".malformed", "ful");
+		EnforcementPolicy.reload();
+	}
+
+	@After
+	public void tearDown() {
+		System.clearProperty(prefix);
+		System.clearProperty(prefix + ".post");
+		System.clearProperty(prefix + ".malformed");
+		EnforcementPolicy.reload();
+	}
+
+	@Test
+	public void testMostSpecificLevel() {
+		assertEquals(EnforcementLevel.POST, EnforcementPolicy.getLevel(joinPoint("post")));
+		assertEquals(EnforcementLevel.PRE, EnforcementPolicy.getLevel(joinPoint("other")));
+	}
+
+	@Test
+	public void testSetLevel() {
+		EnforcementPolicy.setLevel(EnforcementPolicyTest.class.getName() + ".other", EnforcementLevel.OFF);
+		assertEquals(EnforcementLevel.OFF, EnforcementPolicy.getLevel(joinPoint("other")));
+		EnforcementPolicy.setLevel(EnforcementPolicyTest.class.getName() + ".other", null);
+		assertEquals(EnforcementLevel.PRE, EnforcementPolicy.getLevel(joinPoint("other")));
+	}
+
+	@Test
+	public void testMalformedLevelSkipped() {
+		// The malformed entry falls back to the enclosing class, and doesn't affect the other entries
+		assertEquals(EnforcementLevel.PRE, EnforcementPolicy.getLevel(joinPoint("malformed")));
+		assertEquals(EnforcementLevel.POST, EnforcementPolicy.getLevel(joinPoint("post")));
+	}
+
+	@Test
+	public void testMalformedLevelInStaticInitializer() throws Exception {
+		// Initialize a fresh copy of the EnforcementPolicy class, while the malformed entry is present
+		URL[] classpath = {
+			EnforcementPolicy.class.getProtectionDomain().getCodeSource().getLocation(),
+			JoinPoint.class.getProtectionDomain().getCodeSource().getLocation()
+		};
+		URLClassLoader loader = new URLClassLoader(classpath, ClassLoader.getPlatformClassLoader());
+		try {
+			Class.forName(EnforcementPolicy.class.getName(), true, loader);
+		} finally {
+			loader.close();
+		}
+	}
+
+	/*
+	 * Create the static part of a method execution join point in this class
+	 */
+	private static JoinPoint.StaticPart joinPoint(String method) {
+		Factory factory = new Factory("EnforcementPolicyTest.java", EnforcementPolicyTest.class);
+		return factory.makeSJP(JoinPoint.METHOD_EXECUTION,
+				factory.makeMethodSig(Modifier.PUBLIC, method, EnforcementPolicyTest.class, new Class[0], new String[0], new Class[0], void.class), 0);
+	}
+}
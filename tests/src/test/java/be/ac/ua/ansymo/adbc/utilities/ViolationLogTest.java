@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.adbc.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the ring buffer and the symbol table of the ViolationLog
+ * @author Tim Molderez
+ */
+public class ViolationLogTest {
+
+	/**
+	 * Collects the blamed signatures of the drained records
+	 */
+	private static class Collector implements ViolationLog.Consumer {
+		List<String> blamed = new ArrayList<String>();
+
+		public void violation(ViolationLog.Record r) {
+			blamed.add(ViolationLog.getName(r.blame));
+		}
+	}
+
+	/**
+	 * A signature that counts how often it is formatted
+	 */
+	private static class Signature {
+		int formatted;
+
+		public String toString() {
+			formatted++;
+			return "lazy signature";
+		}
+	}
+
+	@Before
+	public void setUp() {
+		ViolationLog.drain(new Collector());
+	}
+
+	@Test
+	public void testDrainInOrder() {
+		for (int i = 0; i < 10; i++) {
+			ViolationLog.record(ViolationLog.Kind.PRECONDITION, "testDrainInOrder", "where", "blame" + i, null);
+		}
+		Collector c = new Collector();
+		assertEquals(10, ViolationLog.drain(c));
+		for (int i = 0; i < 10; i++) {
+			assertEquals("blame" + i, c.blamed.get(i));
+		}
+		assertEquals(0, ViolationLog.drain(new Collector()));
+		assertEquals(10, ViolationLog.getViolationCount("testDrainInOrder"));
+		assertEquals(Long.valueOf(10), ViolationLog.getViolationCounts().get("testDrainInOrder"));
+	}
+
+	@Test
+	public void testOverwriteOldest() {
+		// Many records, each with new symbols, so the buffer wraps around and the symbol table grows
+		int n = 50000;
+		long lost = ViolationLog.getLostCount();
+		for (int i = 0; i < n; i++) {
+			ViolationLog.record(ViolationLog.Kind.INVARIANT, "testOverwriteOldest", "where", "overwritten" + i, "reason");
+		}
+
+		Collector c = new Collector();
+		int drained = ViolationLog.drain(c);
+		assertTrue(drained < n);
+		assertEquals(n, drained + ViolationLog.getLostCount() - lost);
+
+		// Only the newest records are left
+		for (int i = 0; i < drained; i++) {
+			assertEquals("overwritten" + (n - drained + i), c.blamed.get(i));
+		}
+	}
+
+	@Test
+	public void testLazyFormatting() {
+		Signature where = new Signature();
+		Signature blame = new Signature();
+		ViolationLog.record(ViolationLog.Kind.POSTCONDITION, "testLazyFormatting", where, blame, null);
+		assertEquals(0, where.formatted);
+		assertEquals(0, blame.formatted);
+
+		Collector c = new Collector();
+		ViolationLog.drain(c);
+		assertEquals(1, where.formatted);
+		assertEquals(1, blame.formatted);
+		assertEquals("lazy signature", c.blamed.get(0));
+	}
+
+	@Test
+	public void testConcurrentRecording() throws InterruptedException {
+		final int perThread = 500;
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int t = i;
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < perThread; j++) {
+						ViolationLog.record(ViolationLog.Kind.SUBSTITUTION, "testConcurrentRecording", "where", "thread" + t + "-" + j, null);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		assertEquals(threads.length * perThread, ViolationLog.getViolationCount("testConcurrentRecording"));
+		Collector c = new Collector();
+		long lost = ViolationLog.getLostCount();
+		int drained = ViolationLog.drain(c);
+		assertEquals(threads.length * perThread, drained + ViolationLog.getLostCount() - lost);
+		for (String blamed : c.blamed) {
+			assertTrue(blamed, blamed.startsWith("thread"));
+		}
+	}
+}
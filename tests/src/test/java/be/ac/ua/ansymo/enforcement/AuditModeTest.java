@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.enforcement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.ac.ua.ansymo.adbc.AdbcConfig;
+import be.ac.ua.ansymo.adbc.exceptions.PostConditionException;
+import be.ac.ua.ansymo.adbc.exceptions.PreConditionException;
+import be.ac.ua.ansymo.adbc.utilities.ContractAuditor;
+
+/**
+ * Tests AdbcConfig.auditMode: postconditions that only read immutable values are checked on an audit thread,
+ * and the ContractAuditor applies backpressure if those checks can't keep up
+ * @author Tim Molderez
+ */
+public class AuditModeTest {
+	private Counter counter;
+	private Calculator calculator;
+	private List<String> violations = Collections.synchronizedList(new ArrayList<String>());
+	private CountDownLatch stalled = new CountDownLatch(0);	// The listener waits until this reaches 0
+
+	@Before
+	public void setUp() throws InterruptedException {
+		ContractAuditor.shutdown(5000);
+		ContractAuditor.setListener(new ContractAuditor.Listener() {
+			public void contractBroken(RuntimeException e) {
+				violations.add(Thread.currentThread().getName() + ": " + e.getClass().getSimpleName());
+				try {
+					stalled.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {}
+			}
+		});
+		AdbcConfig.auditMode = true;
+		counter = new Counter();
+		calculator = new Calculator();
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		AdbcConfig.auditMode = false;
+		ContractAuditor.shutdown(5000);
+		AdbcConfig.auditQueueSize = 1024;
+		AdbcConfig.auditBackpressure = ContractAuditor.Backpressure.DROP;
+	}
+
+	@Test
+	public void testDeferredCheck() throws InterruptedException {
+		assertEquals(7, calculator.twice(3));
+		assertTrue(ContractAuditor.shutdown(5000));
+		assertEquals(1, violations.size());
+		assertTrue(violations.get(0), violations.get(0).startsWith("adbc-audit-"));
+		assertTrue(violations.get(0), violations.get(0).endsWith(PostConditionException.class.getSimpleName()));
+	}
+
+	@Test(expected = PostConditionException.class)
+	public void testMutableStateCheckedSynchronously() {
+		counter.add(13);
+	}
+
+	@Test(expected = PreConditionException.class)
+	public void testPreconditionsStaySynchronous() {
+		calculator.twice(-1);
+	}
+
+	@Test
+	public void testBackpressureDrop() throws InterruptedException {
+		// The first check stalls the audit thread and the second fills the queue; the others are dropped
+		stalled = new CountDownLatch(1);
+		assertEquals(200, brokenChecks(ContractAuditor.Backpressure.DROP, 200));
+		assertEquals(2, violations.size());
+	}
+
+	@Test
+	public void testBackpressureSample() throws InterruptedException {
+		assertEquals(1.0, ContractAuditor.getSubmitRate(), 0);
+		stalled = new CountDownLatch(1);
+		assertEquals(200, brokenChecks(ContractAuditor.Backpressure.SAMPLE, 200));
+		assertEquals(2, violations.size());
+		
+		// The submit rate was lowered when the queue was full, and recovers whenever the queue is drained
+		// (Sampling is switched off meanwhile, or most of these checks wouldn't even be submitted.)
+		assertTrue(ContractAuditor.getSubmitRate() < 1.0);
+		AdbcConfig.auditBackpressure = ContractAuditor.Backpressure.BLOCK;
+		for (int i = 0; i < 20 && ContractAuditor.getSubmitRate() < 1.0; i++) {
+			calculator.twice(2);
+			assertTrue(ContractAuditor.shutdown(5000));
+		}
+		assertEquals(1.0, ContractAuditor.getSubmitRate(), 0);
+	}
+	
+	@Test
+	public void testSampleRate() throws InterruptedException {
+		// (The same check is submitted each time, as creating new objects here would submit checks of their constructors.)
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable check = new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {}
+			}
+		};
+		AdbcConfig.auditQueueSize = 1;
+		AdbcConfig.auditBackpressure = ContractAuditor.Backpressure.SAMPLE;
+		assertTrue(ContractAuditor.shutdown(5000));
+		assertEquals(1.0, ContractAuditor.getSubmitRate(), 0);
+		
+		// Stall the audit thread and fill the queue; the next check is rejected, which halves the submit rate
+		ContractAuditor.submit(check);
+		started.await();
+		ContractAuditor.submit(check);
+		long dropped = ContractAuditor.getDroppedCount();
+		ContractAuditor.submit(check);
+		assertEquals(dropped + 1, ContractAuditor.getDroppedCount());
+		assertEquals(0.5, ContractAuditor.getSubmitRate(), 0);
+		
+		// Continue with new audit threads that have plenty of room in their queue (the old ones are still stalled)
+		AdbcConfig.auditQueueSize = 1024;
+		ContractAuditor.shutdown(0);
+		dropped = ContractAuditor.getDroppedCount();
+		for (int i = 0; i < 64; i++) {
+			ContractAuditor.submit(check);
+		}
+		
+		// About half of the checks are dropped by submit() itself; none of them were rejected by the full queue
+		long sampledOut = ContractAuditor.getDroppedCount() - dropped;
+		assertTrue(sampledOut > 0 && sampledOut < 64);
+		assertEquals(0.5, ContractAuditor.getSubmitRate(), 0);
+		
+		// Once the queue is drained, all checks are submitted again
+		release.countDown();
+		assertTrue(ContractAuditor.shutdown(5000));
+		assertEquals(1.0, ContractAuditor.getSubmitRate(), 0);
+	}
+
+	@Test
+	public void testBackpressureBlock() throws InterruptedException {
+		long dropped = ContractAuditor.getDroppedCount();
+		assertEquals(200, brokenChecks(ContractAuditor.Backpressure.BLOCK, 200));
+		assertEquals(200, violations.size());
+		assertEquals(dropped, ContractAuditor.getDroppedCount());
+	}
+
+	/*
+	 * Break a deferred postcondition n times with a tiny audit queue, then let the listener continue
+	 * @return the number of checks that were either reported to the listener, or dropped
+	 */
+	private int brokenChecks(ContractAuditor.Backpressure backpressure, int n) throws InterruptedException {
+		AdbcConfig.auditQueueSize = 1;
+		AdbcConfig.auditBackpressure = backpressure;
+		// Restart the audit threads, as the checks of this test's own methods may already have started them with a larger queue
+		assertTrue(ContractAuditor.shutdown(5000));
+		long dropped = ContractAuditor.getDroppedCount();
+		for (int i = 0; i < n; i++) {
+			calculator.twice(3);
+		}
+		stalled.countDown();
+		assertTrue(ContractAuditor.shutdown(5000));
+		return violations.size() + (int)(ContractAuditor.getDroppedCount() - dropped);
+	}
+}
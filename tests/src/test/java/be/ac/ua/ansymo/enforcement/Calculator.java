@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.enforcement;
+
+import be.ac.ua.ansymo.adbc.annotations.ensures;
+import be.ac.ua.ansymo.adbc.annotations.requires;
+
+/**
+ * A class with contracts but without an invariant, used by the contract enforcement tests
+ * (Its postconditions only read immutable values, so they can be checked asynchronously in audit mode.)
+ * @author Tim Molderez
+ */
+public class Calculator {
+
+	/**
+	 * Multiply x by two (breaks its postcondition if x is 3)
+	 * @param x
+	 * @return
+	 */
+	@requires("x >= 0")
+	@ensures("$result == x * 2")
+	public int twice(int x) {
+		return x == 3 ? 7 : x * 2;
+	}
+}
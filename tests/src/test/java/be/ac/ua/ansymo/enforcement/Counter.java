@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.enforcement;
+
+import be.ac.ua.ansymo.adbc.annotations.ensures;
+import be.ac.ua.ansymo.adbc.annotations.invariant;
+import be.ac.ua.ansymo.adbc.annotations.requires;
+import be.ac.ua.ansymo.adbc.aspects.EnforcementGuard;
+
+/**
+ * A class with contracts, used by the contract enforcement tests
+ * (Some of its methods deliberately break their contracts for particular arguments.)
+ * @author Tim Molderez
+ */
+@invariant("$this.count >= 0")
+public class Counter {
+	public int count;
+	public boolean probedOutside;	// Was the guard's isOutside() true during the last call to probe()?
+	public boolean bodyOutside;		// Was the guard's isOutside() true during the last call to guarded()?
+
+	/**
+	 * Add x to the count (breaks its postcondition if x is 13)
+	 * @param x
+	 */
+	@requires("x > 0")
+	@ensures("$this.count == $old($this.count) + x")
+	public void add(int x) {
+		count += x == 13 ? x + 1 : x;
+	}
+
+	/**
+	 * Subtract x from the count
+	 * @param x
+	 * @throws IllegalArgumentException if the count would become negative
+	 */
+	@requires("x > 0")
+	@ensures("$this.count == $old($this.count) - x")
+	public void subtract(int x) {
+		if (x > count) {
+			throw new IllegalArgumentException("Not enough left");
+		}
+		count -= x;
+	}
+
+	/**
+	 * Method whose precondition calls probe()
+	 */
+	@requires("$this.probe()")
+	public void guarded() {
+		bodyOutside = EnforcementGuard.isOutside();
+	}
+
+	/**
+	 * Called by the precondition of guarded()
+	 * @return true
+	 */
+	public boolean probe() {
+		probedOutside = EnforcementGuard.isOutside();
+		return true;
+	}
+}
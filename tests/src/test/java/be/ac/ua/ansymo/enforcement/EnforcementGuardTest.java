@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.enforcement;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import be.ac.ua.ansymo.adbc.aspects.EnforcementGuard;
+import be.ac.ua.ansymo.adbc.exceptions.PreConditionException;
+
+/**
+ * Tests that the EnforcementGuard only excludes code that runs during a contract check
+ * @author Tim Molderez
+ */
+public class EnforcementGuardTest {
+
+	@Test
+	public void testInsideContractCheck() {
+		Counter counter = new Counter();
+		counter.guarded();
+		assertFalse(counter.probedOutside);
+		assertTrue(counter.bodyOutside);
+		assertTrue(EnforcementGuard.isOutside());
+	}
+
+	@Test
+	public void testOutsideAfterBrokenContract() {
+		Counter counter = new Counter();
+		try {
+			counter.add(-1);
+			fail();
+		} catch (PreConditionException e) {
+			assertTrue(EnforcementGuard.isOutside());
+		}
+
+		// Contracts are still enforced afterwards
+		try {
+			counter.add(-1);
+			fail();
+		} catch (PreConditionException e) {}
+	}
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.enforcement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import be.ac.ua.ansymo.adbc.exceptions.PreConditionException;
+import be.ac.ua.ansymo.adbc.utilities.ContractInterpreter;
+
+/**
+ * Tests that contract enforcement returns its interpreters to the pool, also if a contract or the method itself fails
+ * @author Tim Molderez
+ */
+public class InterpreterPoolTest {
+	private AtomicInteger poolSize;
+	private Counter counter;
+
+	@Before
+	public void setUp() throws Exception {
+		Field f = ContractInterpreter.class.getDeclaredField("poolSize");
+		f.setAccessible(true);
+		poolSize = (AtomicInteger)f.get(null);
+
+		// Empty the pool
+		while (poolSize.get() > 0) {
+			ContractInterpreter.acquire();
+		}
+		counter = new Counter();
+	}
+
+	@Test
+	public void testReleasedAfterCall() {
+		for (int i = 0; i < 10; i++) {
+			counter.add(1);
+		}
+		assertEquals(1, poolSize.get());
+	}
+
+	@Test
+	public void testReleasedAfterBrokenPrecondition() {
+		for (int i = 0; i < 10; i++) {
+			try {
+				counter.add(-1);
+				fail();
+			} catch (PreConditionException e) {}
+		}
+		assertEquals(1, poolSize.get());
+	}
+
+	@Test
+	public void testReleasedAfterException() {
+		for (int i = 0; i < 10; i++) {
+			try {
+				counter.subtract(1);
+				fail();
+			} catch (IllegalArgumentException e) {}
+		}
+		assertEquals(1, poolSize.get());
+	}
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2014 Tim Molderez.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the 3-Clause BSD License
+ * which accompanies this distribution, and is available at
+ * http://www.opensource.org/licenses/BSD-3-Clause
+ ******************************************************************************/
+
+package be.ac.ua.ansymo.enforcement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.ac.ua.ansymo.adbc.AdbcConfig;
+import be.ac.ua.ansymo.adbc.exceptions.PostConditionException;
+import be.ac.ua.ansymo.adbc.exceptions.PreConditionException;
+import be.ac.ua.ansymo.adbc.utilities.ViolationLog;
+
+/**
+ * Tests AdbcConfig.reportMode: broken contracts are recorded in the ViolationLog instead of being thrown
+ * @author Tim Molderez
+ */
+public class ReportModeTest {
+	private Counter counter;
+
+	/**
+	 * Copies the records drained from the ViolationLog
+	 */
+	private static class Collector implements ViolationLog.Consumer {
+		List<String> violations = new ArrayList<String>();
+		ViolationLog.Record first;
+
+		public void violation(ViolationLog.Record r) {
+			violations.add(r.kind + ": " + ViolationLog.getName(r.contract) + " in " + ViolationLog.getName(r.where)
+					+ ", blame " + ViolationLog.getName(r.blame));
+			if (first == null) {
+				first = new ViolationLog.Record();
+				first.kind = r.kind;
+				first.contract = r.contract;
+				first.where = r.where;
+				first.blame = r.blame;
+				first.reason = r.reason;
+			}
+		}
+	}
+
+	@Before
+	public void setUp() {
+		AdbcConfig.reportMode = true;
+		counter = new Counter();
+		drain();
+	}
+
+	@After
+	public void tearDown() {
+		AdbcConfig.reportMode = false;
+	}
+
+	@Test
+	public void testPreconditionRecorded() {
+		long before = ViolationLog.getViolationCount("x > 0");
+		counter.add(-1);
+		assertEquals(-1, counter.count);
+
+		Collector c = drain();
+		String violation = c.violations.get(0);
+		assertTrue(violation, violation.startsWith("PRECONDITION: x > 0 in "));
+		assertTrue(violation, violation.contains("Counter.add(int)"));
+		assertTrue(violation, violation.endsWith("blame " + ReportModeTest.class.getName() + ".testPreconditionRecorded"));
+		assertTrue(c.first.toException() instanceof PreConditionException);
+		assertEquals(before + 1, ViolationLog.getViolationCount("x > 0"));
+
+		// The method continued, so the broken invariant is recorded as well
+		assertTrue(c.violations.toString(), c.violations.get(1).startsWith("INVARIANT: $this.count >= 0 in "));
+		assertTrue(ViolationLog.getViolationCount("$this.count >= 0") > 0);
+	}
+
+	@Test
+	public void testPostconditionRecorded() {
+		counter.add(13);
+
+		Collector c = drain();
+		String violation = c.violations.get(0);
+		assertTrue(violation, violation.startsWith("POSTCONDITION: "));
+		assertTrue(violation, violation.contains("blame " + Counter.class.getCanonicalName() + "."));
+		assertTrue(c.first.toException() instanceof PostConditionException);
+	}
+
+	@Test
+	public void testNoViolations() {
+		counter.add(1);
+		assertEquals(2, new Calculator().twice(1));
+		assertEquals(0, drain().violations.size());
+	}
+
+	@Test(expected = PreConditionException.class)
+	public void testThrowsWithoutReportMode() {
+		AdbcConfig.reportMode = false;
+		counter.add(-1);
+	}
+
+	/*
+	 * Drain all records from the ViolationLog
+	 */
+	private static Collector drain() {
+		Collector c = new Collector();
+		ViolationLog.drain(c);
+		return c;
+	}
+}